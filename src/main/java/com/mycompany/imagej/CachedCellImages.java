@@ -0,0 +1,141 @@
+package com.mycompany.imagej;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.DiskCachedCellImgFactory;
+import net.imglib2.cache.img.DiskCachedCellImgOptions;
+import net.imglib2.cache.img.DiskCachedCellImgOptions.CacheType;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.Img;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Cette classe permet de traiter des piles plus grandes que la mémoire de la JVM.
+ *
+ * La pile est lue à la demande, par blocs de plans, depuis une pile virtuelle ; l'image floutée
+ * est calculée bloc par bloc et les blocs évincés sont écrits sur le disque. Chaque cache est
+ * borné (éviction des blocs les moins récemment utilisés) : la mémoire utilisée dépend de la
+ * taille des blocs et du plafond choisi, pas de la taille de la pile.
+ */
+public class CachedCellImages {
+
+    /** La taille visée d'un bloc de plans de la pile source, en octets. */
+    private static final long SLAB_BYTES = 32L << 20;
+    /** La taille des blocs de l'image floutée, en voxels. */
+    private static final int BLOCK_SIZE = 64;
+
+    /**
+     * Ouvre une pile (de préférence virtuelle) sous forme d'image à cellules chargées à la
+     * demande. Chaque cellule contient des plans entiers, pour que chaque plan ne soit lu
+     * qu'une fois tant qu'il reste dans le cache.
+     *
+     * @param imp La pile d'images (premier canal, premier temps).
+     * @param memoryCeiling La mémoire (en octets) allouée aux cellules chargées.
+     * @return L'image (x, y, z), en niveaux de gris flottants.
+     */
+    public static Img<FloatType> openVirtual(ImagePlus imp, long memoryCeiling) {
+        int width = imp.getWidth();
+        int height = imp.getHeight();
+        int depth = imp.getNSlices();
+        int slab = (int) Math.max(1, Math.min(depth, SLAB_BYTES / (4L * width * height)));
+        long slabBytes = 4L * width * height * slab;
+
+        ImageStack stack = imp.getStack();
+        CellLoader<FloatType> loader = cell -> {
+            Cursor<FloatType> cursor = cell.localizingCursor();
+            int currentPlane = -1;
+            ImageProcessor processor = null;
+            while (cursor.hasNext()) {
+                FloatType value = cursor.next();
+                int z = cursor.getIntPosition(2);
+                if (z != currentPlane) {
+                    currentPlane = z;
+                    processor = stack.getProcessor(imp.getStackIndex(1, z + 1, 1));
+                }
+                value.set(processor.getf(cursor.getIntPosition(0), cursor.getIntPosition(1)));
+            }
+        };
+
+        ReadOnlyCachedCellImgOptions options = ReadOnlyCachedCellImgOptions.options()
+                .cellDimensions(width, height, slab)
+                .cacheType(CacheType.BOUNDED)
+                .maxCacheSize(Math.max(2, memoryCeiling / slabBytes));
+        return new ReadOnlyCachedCellImgFactory(options).create(new long[] {width, height, depth}, new FloatType(), loader);
+    }
+
+    /**
+     * Floute une image par blocs : chaque bloc de l'image floutée est calculé au premier accès,
+     * à partir de la région correspondante de la source (et de sa bordure), puis écrit sur le
+     * disque lorsqu'il est évincé du cache.
+     *
+     * @param image L'image à flouter (x, y, z).
+     * @param sigma Le sigma du flou pour chaque axe (x, y, z), en voxels.
+     * @param memoryCeiling La mémoire (en octets) allouée aux blocs floutés.
+     * @return L'image floutée, de même taille que la source et d'origine nulle.
+     */
+    public static <T extends RealType<T>> Img<FloatType> gauss(RandomAccessibleInterval<T> image, double[] sigma, long memoryCeiling) {
+        RandomAccessible<T> source = Views.extendMirrorSingle(Views.zeroMin(image));
+        return diskCached(Intervals.dimensionsAsLongArray(image), cell -> Gauss3.gauss(sigma, source, cell), memoryCeiling);
+    }
+
+    /**
+     * Calcule la norme du gradient de Sobel par blocs, de la même façon que {@link #gauss}.
+     *
+     * @param image L'image (x, y, z).
+     * @param memoryCeiling La mémoire (en octets) allouée aux blocs calculés.
+     * @return La norme du gradient, de même taille que l'image et d'origine nulle.
+     */
+    public static <T extends RealType<T>> Img<FloatType> sobel(RandomAccessibleInterval<T> image, long memoryCeiling) {
+        RandomAccessibleInterval<T> source = Views.zeroMin(image);
+        return diskCached(Intervals.dimensionsAsLongArray(image), cell -> SobelEdgeDetector.gradientMagnitude(source, cell), memoryCeiling);
+    }
+
+    /**
+     * Crée une image dont les blocs sont calculés au premier accès et écrits sur le disque
+     * lorsqu'ils sont évincés du cache.
+     */
+    private static Img<FloatType> diskCached(long[] dimensions, CellLoader<FloatType> loader, long memoryCeiling) {
+        long blockBytes = 4L * BLOCK_SIZE * BLOCK_SIZE * BLOCK_SIZE;
+        DiskCachedCellImgOptions options = DiskCachedCellImgOptions.options()
+                .cellDimensions(BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE)
+                .cacheType(CacheType.BOUNDED)
+                .maxCacheSize(Math.max(1, memoryCeiling / blockBytes));
+        return new DiskCachedCellImgFactory<>(new FloatType(), options).create(dimensions, loader);
+    }
+
+    /**
+     * Binarise une image avec le seuil d'Otsu, calculé sur un histogramme accumulé bloc par bloc
+     * en parallèle. Le masque renvoyé est une vue : il n'occupe pas de mémoire.
+     *
+     * @param image L'image à binariser.
+     * @return Le masque des voxels au-dessus du seuil.
+     */
+    public static <T extends RealType<T>> IterableInterval<BitType> threshold(RandomAccessibleInterval<T> image) {
+        return threshold(image, ProcessImage.otsuLevel(image, BLOCK_SIZE));
+    }
+
+    /**
+     * Binarise une image avec un seuil donné, sous forme de vue.
+     *
+     * @param image L'image à binariser.
+     * @param threshold Le seuil.
+     * @return Le masque des voxels au-dessus du seuil.
+     */
+    public static <T extends RealType<T>> IterableInterval<BitType> threshold(RandomAccessibleInterval<T> image, double threshold) {
+        return Views.iterable(Converters.convert(image,
+                (T in, BitType out) -> out.set(in.getRealDouble() > threshold), new BitType()));
+    }
+}
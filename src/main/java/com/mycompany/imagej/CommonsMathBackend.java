@@ -0,0 +1,55 @@
+package com.mycompany.imagej;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.CholeskyDecomposition;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Les factorisations de commons-math, sur des copies des matrices au format par lignes.
+ */
+public class CommonsMathBackend implements LinearAlgebraBackend {
+
+    @Override
+    public Factorization qr(double[] a, int rows, int columns) {
+        return solver(new QRDecomposition(toMatrix(a, rows, columns)).getSolver(), rows);
+    }
+
+    @Override
+    public Factorization cholesky(double[] a, int size) {
+        // Symétrisation à partir du triangle inférieur, seul à être lu
+        double[][] data = new double[size][size];
+        for (int j = 0; j < size; j++) {
+            for (int i = j; i < size; i++) {
+                data[i][j] = a[j * size + i];
+                data[j][i] = a[j * size + i];
+            }
+        }
+        return solver(new CholeskyDecomposition(new Array2DRowRealMatrix(data, false)).getSolver(), size);
+    }
+
+    private static Factorization solver(DecompositionSolver solver, int rows) {
+        return (b, numRightHandSides) -> {
+            RealMatrix x = solver.solve(toMatrix(b, rows, numRightHandSides));
+            int columns = x.getRowDimension();
+            double[] solution = new double[columns * numRightHandSides];
+            for (int k = 0; k < numRightHandSides; k++) {
+                for (int i = 0; i < columns; i++) {
+                    solution[k * columns + i] = x.getEntry(i, k);
+                }
+            }
+            return solution;
+        };
+    }
+
+    private static RealMatrix toMatrix(double[] a, int rows, int columns) {
+        double[][] data = new double[rows][columns];
+        for (int j = 0; j < columns; j++) {
+            for (int i = 0; i < rows; i++) {
+                data[i][j] = a[j * rows + i];
+            }
+        }
+        return new Array2DRowRealMatrix(data, false);
+    }
+}
@@ -0,0 +1,348 @@
+package com.mycompany.imagej;
+
+import java.util.stream.IntStream;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.BooleanType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.Views;
+
+/**
+ * Cette classe étiquette les composantes connexes (6-connexité) d'une image binaire 3D.
+ *
+ * L'étiquetage utilise une structure union-find stockée dans un tableau d'entiers : chaque
+ * tranche de plans z est étiquetée par un thread, puis les tranches sont raccordées à leurs
+ * frontières et les étiquettes renumérotées de 1 au nombre de composantes.
+ */
+public class ConnectedComponents {
+
+    private final long[] min;
+    private final int[] dimensions;
+    private final int[] labels;
+    private final int numComponents;
+    private final long[] sizes;
+    private final int[][] boundsMin;
+    private final int[][] boundsMax;
+
+    private ConnectedComponents(long[] min, int[] dimensions, int[] labels, int numComponents) {
+        this.min = min;
+        this.dimensions = dimensions;
+        this.labels = labels;
+        this.numComponents = numComponents;
+        this.sizes = new long[numComponents + 1];
+        this.boundsMin = new int[numComponents + 1][3];
+        this.boundsMax = new int[numComponents + 1][3];
+        measure();
+    }
+
+    /**
+     * Étiquette les composantes connexes d'une image binaire.
+     *
+     * @param mask L'image binaire (x, y, z).
+     * @return Les composantes connexes.
+     */
+    public static <B extends BooleanType<B>> ConnectedComponents label(RandomAccessibleInterval<B> mask) {
+        if (Intervals.numElements(mask) >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image trop grande pour l'étiquetage : " + Intervals.numElements(mask) + " voxels");
+        }
+        long[] min = Intervals.minAsLongArray(mask);
+        int[] dims = new int[] {(int) mask.dimension(0), (int) mask.dimension(1), (int) mask.dimension(2)};
+        int sliceSize = dims[0] * dims[1];
+
+        // labels[i] = 0 pour le fond, sinon l'indice (+1) du parent du voxel dans l'union-find
+        int[] labels = new int[sliceSize * dims[2]];
+
+        // Étiquetage indépendant de chaque tranche de plans z
+        int numSlabs = Math.max(1, Math.min(dims[2], Runtime.getRuntime().availableProcessors()));
+        int[] slabStart = new int[numSlabs + 1];
+        for (int s = 0; s <= numSlabs; s++) {
+            slabStart[s] = (int) ((long) dims[2] * s / numSlabs);
+        }
+        IntStream.range(0, numSlabs).parallel().forEach(s -> {
+            Interval slab = Intervals.createMinMax(min[0], min[1], min[2] + slabStart[s],
+                    min[0] + dims[0] - 1, min[1] + dims[1] - 1, min[2] + slabStart[s + 1] - 1);
+            Cursor<B> cursor = Views.interval(mask, slab).localizingCursor();
+            while (cursor.hasNext()) {
+                if (!cursor.next().get()) {
+                    continue;
+                }
+                int x = (int) (cursor.getLongPosition(0) - min[0]);
+                int y = (int) (cursor.getLongPosition(1) - min[1]);
+                int z = (int) (cursor.getLongPosition(2) - min[2]);
+                int index = (z * dims[1] + y) * dims[0] + x;
+                labels[index] = index + 1;
+            }
+            for (int z = slabStart[s]; z < slabStart[s + 1]; z++) {
+                for (int y = 0; y < dims[1]; y++) {
+                    for (int x = 0; x < dims[0]; x++) {
+                        int index = (z * dims[1] + y) * dims[0] + x;
+                        if (labels[index] == 0) {
+                            continue;
+                        }
+                        if (x > 0 && labels[index - 1] != 0) {
+                            union(labels, index, index - 1);
+                        }
+                        if (y > 0 && labels[index - dims[0]] != 0) {
+                            union(labels, index, index - dims[0]);
+                        }
+                        if (z > slabStart[s] && labels[index - sliceSize] != 0) {
+                            union(labels, index, index - sliceSize);
+                        }
+                    }
+                }
+            }
+        });
+
+        // Raccordement des tranches à leurs frontières
+        for (int s = 1; s < numSlabs; s++) {
+            int offset = slabStart[s] * sliceSize;
+            for (int i = 0; i < sliceSize; i++) {
+                if (labels[offset + i] != 0 && labels[offset + i - sliceSize] != 0) {
+                    union(labels, offset + i, offset + i - sliceSize);
+                }
+            }
+        }
+
+        // Chaque voxel pointe directement vers la racine de sa composante
+        IntStream.range(0, numSlabs).parallel().forEach(s -> {
+            for (int i = slabStart[s] * sliceSize; i < slabStart[s + 1] * sliceSize; i++) {
+                if (labels[i] != 0) {
+                    labels[i] = find(labels, i) + 1;
+                }
+            }
+        });
+
+        // Renumérotation des racines de 1 au nombre de composantes (stockées en négatif)
+        int numComponents = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] == i + 1) {
+                labels[i] = -(++numComponents);
+            }
+        }
+        IntStream.range(0, numSlabs).parallel().forEach(s -> {
+            for (int i = slabStart[s] * sliceSize; i < slabStart[s + 1] * sliceSize; i++) {
+                if (labels[i] > 0) {
+                    labels[i] = -labels[labels[i] - 1];
+                }
+            }
+        });
+        IntStream.range(0, numSlabs).parallel().forEach(s -> {
+            for (int i = slabStart[s] * sliceSize; i < slabStart[s + 1] * sliceSize; i++) {
+                if (labels[i] < 0) {
+                    labels[i] = -labels[i];
+                }
+            }
+        });
+
+        return new ConnectedComponents(min, dims, labels, numComponents);
+    }
+
+    /**
+     * Remplit les cavités d'un masque : les composantes du fond qui ne touchent pas le bord de
+     * l'image en sont entourées et passent au premier plan. Le seuil de la norme du gradient
+     * donne la coque de la gouttelette ; une fois remplie, elle redevient son volume.
+     *
+     * @param mask Le masque (x, y, z).
+     * @return Le masque rempli, sur le même intervalle.
+     */
+    public static <B extends BooleanType<B>> IntervalView<BitType> fillHoles(RandomAccessibleInterval<B> mask) {
+        ConnectedComponents background = label(Converters.convert(mask, (B in, BitType out) -> out.set(!in.get()), new BitType()));
+        int[] dims = background.dimensions;
+        boolean[] enclosed = new boolean[background.numComponents + 1];
+        for (int l = 1; l <= background.numComponents; l++) {
+            enclosed[l] = true;
+            for (int d = 0; d < 3; d++) {
+                if (background.boundsMin[l][d] == 0 || background.boundsMax[l][d] == dims[d] - 1) {
+                    enclosed[l] = false;
+                }
+            }
+        }
+
+        // Le curseur d'une image en tableau suit l'ordre des étiquettes (x le plus rapide) ;
+        // l'étiquette 0 du fond inversé est le premier plan du masque
+        Img<BitType> filled = ArrayImgs.bits(dims[0], dims[1], dims[2]);
+        Cursor<BitType> cursor = filled.cursor();
+        int[] labels = background.labels;
+        for (int index = 0; cursor.hasNext(); index++) {
+            cursor.next().set(labels[index] == 0 || enclosed[labels[index]]);
+        }
+        return Views.translate(filled, background.min);
+    }
+
+    /**
+     * Réunit les composantes de deux voxels ; la racine est toujours le plus petit indice.
+     */
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA < rootB) {
+            parent[rootB] = rootA + 1;
+        } else if (rootB < rootA) {
+            parent[rootA] = rootB + 1;
+        }
+    }
+
+    /**
+     * Cherche la racine d'un voxel, en raccourcissant le chemin parcouru.
+     */
+    private static int find(int[] parent, int index) {
+        while (parent[index] - 1 != index) {
+            int next = parent[index] - 1;
+            parent[index] = parent[next];
+            index = next;
+        }
+        return index;
+    }
+
+    /**
+     * Calcule la taille et la boîte englobante de chaque composante.
+     */
+    private void measure() {
+        for (int l = 1; l <= numComponents; l++) {
+            boundsMin[l] = new int[] {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+            boundsMax[l] = new int[] {-1, -1, -1};
+        }
+        int index = 0;
+        for (int z = 0; z < dimensions[2]; z++) {
+            for (int y = 0; y < dimensions[1]; y++) {
+                for (int x = 0; x < dimensions[0]; x++, index++) {
+                    int label = labels[index];
+                    if (label == 0) {
+                        continue;
+                    }
+                    sizes[label]++;
+                    int[] bMin = boundsMin[label];
+                    int[] bMax = boundsMax[label];
+                    if (x < bMin[0]) bMin[0] = x;
+                    if (y < bMin[1]) bMin[1] = y;
+                    if (z < bMin[2]) bMin[2] = z;
+                    if (x > bMax[0]) bMax[0] = x;
+                    if (y > bMax[1]) bMax[1] = y;
+                    if (z > bMax[2]) bMax[2] = z;
+                }
+            }
+        }
+    }
+
+    public int getNumComponents() {
+        return numComponents;
+    }
+
+    /**
+     * @param label L'étiquette de la composante, entre 1 et {@link #getNumComponents()}.
+     * @return Le nombre de voxels de la composante.
+     */
+    public long getSize(int label) {
+        return sizes[label];
+    }
+
+    /**
+     * @param label L'étiquette de la composante, entre 1 et {@link #getNumComponents()}.
+     * @return La boîte englobante de la composante, dans les coordonnées de l'image étiquetée.
+     */
+    public Interval getBounds(int label) {
+        long[] bMin = new long[3];
+        long[] bMax = new long[3];
+        for (int d = 0; d < 3; d++) {
+            bMin[d] = min[d] + boundsMin[label][d];
+            bMax[d] = min[d] + boundsMax[label][d];
+        }
+        return new FinalInterval(bMin, bMax);
+    }
+
+    /**
+     * Renvoie l'étiquette d'un voxel.
+     *
+     * @param x La position x du voxel dans l'image étiquetée.
+     * @param y La position y du voxel dans l'image étiquetée.
+     * @param z La position z du voxel dans l'image étiquetée.
+     * @return L'étiquette du voxel, 0 pour le fond.
+     */
+    public int getLabel(long x, long y, long z) {
+        return labels[(int) (((z - min[2]) * dimensions[1] + (y - min[1])) * dimensions[0] + (x - min[0]))];
+    }
+
+    /**
+     * Crée le masque binaire d'une composante, recadré sur sa boîte englobante avec une marge
+     * d'un voxel de fond pour que la surface extraite soit fermée. Le masque commence en
+     * {@code getBounds(label).min - 1}.
+     *
+     * @param label L'étiquette de la composante.
+     * @return Le masque de la composante.
+     */
+    public Img<BitType> getComponentMask(int label) {
+        int[] bMin = boundsMin[label];
+        int[] bMax = boundsMax[label];
+        Img<BitType> mask = ArrayImgs.bits(bMax[0] - bMin[0] + 3, bMax[1] - bMin[1] + 3, bMax[2] - bMin[2] + 3);
+        RandomAccess<BitType> access = mask.randomAccess();
+        for (int z = bMin[2]; z <= bMax[2]; z++) {
+            for (int y = bMin[1]; y <= bMax[1]; y++) {
+                int index = (z * dimensions[1] + y) * dimensions[0] + bMin[0];
+                for (int x = bMin[0]; x <= bMax[0]; x++, index++) {
+                    if (labels[index] == label) {
+                        access.setPosition(x - bMin[0] + 1, 0);
+                        access.setPosition(y - bMin[1] + 1, 1);
+                        access.setPosition(z - bMin[2] + 1, 2);
+                        access.get().set(true);
+                    }
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Crée l'image d'une composante pour l'extraction de son isosurface : les valeurs de l'image
+     * seuillée, recadrées comme {@link #getComponentMask} (le résultat commence en
+     * {@code getBounds(label).min - 1}). Les voxels des autres composantes et la marge hors de
+     * l'image sont ramenés à l'isovaleur, donc à l'extérieur : seule la surface de la composante
+     * est extraite, fermée, avec ses sommets sub-voxel.
+     *
+     * @param label L'étiquette de la composante.
+     * @param image L'image dont le masque (voxels strictement au-dessus de l'isovaleur) a été
+     * étiqueté, sur le même intervalle.
+     * @param isovalue L'isovaleur du masque.
+     * @return L'image de la composante.
+     */
+    public <T extends RealType<T>> Img<FloatType> getComponentField(int label, RandomAccessibleInterval<T> image, double isovalue) {
+        int[] bMin = boundsMin[label];
+        int[] bMax = boundsMax[label];
+        float outside = (float) isovalue;
+        Img<FloatType> field = ArrayImgs.floats(bMax[0] - bMin[0] + 3, bMax[1] - bMin[1] + 3, bMax[2] - bMin[2] + 3);
+        RandomAccess<T> access = image.randomAccess();
+        Cursor<FloatType> cursor = field.localizingCursor();
+        while (cursor.hasNext()) {
+            FloatType value = cursor.next();
+            int x = cursor.getIntPosition(0) + bMin[0] - 1;
+            int y = cursor.getIntPosition(1) + bMin[1] - 1;
+            int z = cursor.getIntPosition(2) + bMin[2] - 1;
+            if (x < 0 || y < 0 || z < 0 || x >= dimensions[0] || y >= dimensions[1] || z >= dimensions[2]) {
+                value.set(outside);
+                continue;
+            }
+            int voxelLabel = labels[(z * dimensions[1] + y) * dimensions[0] + x];
+            if (voxelLabel != label && voxelLabel != 0) {
+                value.set(outside);
+                continue;
+            }
+            access.setPosition(min[0] + x, 0);
+            access.setPosition(min[1] + y, 1);
+            access.setPosition(min[2] + z, 2);
+            float v = access.get().getRealFloat();
+            // Le fond reste à l'extérieur malgré l'arrondi en simple précision
+            value.set(voxelLabel == 0 ? Math.min(v, outside) : v);
+        }
+        return field;
+    }
+}
@@ -0,0 +1,718 @@
+package com.mycompany.imagej;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.IntStream;
+
+import ij.ImagePlus;
+import net.imagej.mesh.Mesh;
+import net.imagej.ops.OpService;
+import net.imglib2.Interval;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Cette classe regroupe les étapes de traitement d'une gouttelette, de la pile d'images
+ * jusqu'aux points ajustés par les harmoniques sphériques.
+ *
+ * Elle ne crée aucun objet Swing ni Java3D : elle est utilisée aussi bien par l'interface
+ * graphique (étape par étape, pour l'affichage) que par la commande de traitement par lot.
+ * Les paramètres et résultats de chaque exécution sont portés par un {@link PipelineContext},
+ * une même instance peut donc traiter plusieurs gouttelettes en parallèle.
+ */
+public class DropletPipeline {
+
+    /**
+     * Les étapes de la chaîne, dans l'ordre : la clé d'une étape contient les paramètres
+     * de toutes les étapes précédentes.
+     */
+    private enum Stage {
+        CROP, RESCALE, GAUSS, EDGES, OTSU, MARCHING_CUBES, SMOOTH, RESAMPLE, REFINE, OUTLIERS, SPHERICAL_HARMONICS
+    }
+
+    /** La taille des blocs de la passe de recherche de la gouttelette, en voxels. */
+    private static final int CROP_BLOCK_SIZE = 8;
+    /** La taille des blocs de l'histogramme du seuil d'Otsu en mode isosurface, en voxels. */
+    private static final int OTSU_BLOCK_SIZE = 64;
+
+    /**
+     * Les modes de lissage de l'image avant la binarisation.
+     */
+    public enum SmoothingMode {
+        /** Sur-échantillonnage en z vers des voxels isotropes, puis flou isotrope (sigma en voxels cibles). */
+        UPSAMPLED_ISOTROPIC,
+        /** Flou anisotrope à la résolution d'origine (sigma en microns), sans sur-échantillonnage de l'image. */
+        NATIVE_ANISOTROPIC
+    }
+
+    /**
+     * Les images binarisées par le seuil d'Otsu pour détecter la surface.
+     */
+    public enum SurfaceDetection {
+        /** Seuil sur l'intensité de l'image floutée. */
+        INTENSITY,
+        /**
+         * Seuil sur la norme du gradient de Sobel 3D de l'image floutée (contour de la gouttelette).
+         * Le seuil donne une coque : avec {@link SurfaceExtraction#BINARY_MASK}, elle est remplie
+         * avant le maillage pour n'extraire qu'une surface, ce qui demande une étiquette par voxel
+         * et n'est donc pas disponible avec le cache de cellules. Avec
+         * {@link SurfaceExtraction#GRAYSCALE_ISOSURFACE}, les deux nappes de la coque sont réunies
+         * par le rééchantillonnage (moyenne des rayons) puis l'affinage au pic du gradient.
+         */
+        SOBEL_EDGES
+    }
+
+    /**
+     * Les méthodes d'extraction de la surface.
+     */
+    public enum SurfaceExtraction {
+        /** Marching Cubes sur le masque binarisé : sommets sur les faces des voxels. */
+        BINARY_MASK,
+        /** Marching Cubes sur l'image floutée, à l'isovaleur du seuil d'Otsu : sommets sub-voxel, sans masque. */
+        GRAYSCALE_ISOSURFACE
+    }
+
+    private final OpService opService;
+    private final StageCache cache;
+
+    /**
+     * @param opService Le service d'opérations ImageJ.
+     */
+    public DropletPipeline(OpService opService) {
+        this(opService, null);
+    }
+
+    /**
+     * @param opService Le service d'opérations ImageJ.
+     * @param cache Le cache des résultats des étapes, ou {@code null} pour tout recalculer.
+     */
+    public DropletPipeline(OpService opService, StageCache cache) {
+        this.opService = opService;
+        this.cache = cache;
+    }
+
+    /**
+     * Redimensionne, floute puis binarise (Otsu) l'image.
+     * 
+     * En mode {@link SmoothingMode#NATIVE_ANISOTROPIC}, l'image n'est pas redimensionnée :
+     * le flou est appliqué à la résolution d'origine, avec un sigma en microns, et la mise à
+     * l'échelle est reportée sur les sommets du maillage.
+     * 
+     * Si le recadrage est activé, toutes les étapes travaillent sur la boîte englobante de la
+     * gouttelette ; sa position est enregistrée dans le contexte pour replacer le maillage.
+     * 
+     * Si un plafond mémoire est fixé pour les cellules ({@link PipelineContext#getCellCacheMemory()}),
+     * la pile est lue à la demande, le flou est calculé bloc par bloc (avec écriture sur le disque)
+     * et le masque est une vue : la mémoire utilisée ne dépend plus de la taille de la pile.
+     * 
+     * En mode {@link SurfaceExtraction#GRAYSCALE_ISOSURFACE}, aucun masque n'est créé : l'image
+     * floutée et le seuil d'Otsu sont enregistrés dans le contexte pour {@link #marchingCubes}.
+     *
+     * @param imp La pile d'images de la gouttelette.
+     * @param context Le contexte d'exécution.
+     * @return L'image binarisée, ou {@code null} en mode isosurface.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends RealType<T> & NativeType<T>> IterableInterval<BitType> binarize(ImagePlus imp, PipelineContext context) {
+        context.setSourceImage(imp);
+        ProcessImage.initializeTargetScalingFactor(imp, context);
+        boolean cellCache = context.getCellCacheMemory() > 0;
+        RandomAccessibleInterval<T> image = cellCache
+                ? (RandomAccessibleInterval<T>) (Img<?>) CachedCellImages.openVirtual(imp, cellCacheShare(context))
+                : (RandomAccessibleInterval<T>) ImageJFunctions.wrap(imp);
+        
+        context.setProgress(5);
+
+        // Crop to the droplet
+        RandomAccessibleInterval<T> source;
+        if (context.isCropToDroplet()) {
+            Interval bounds = cached(context, Stage.CROP,
+                    () -> ProcessImage.findDropletBounds(image, CROP_BLOCK_SIZE, context.getCropMargin()),
+                    interval -> 0);
+            context.setCropOffset(Intervals.minAsLongArray(bounds));
+            source = Views.zeroMin(Views.interval(image, bounds));
+        } else {
+            context.setCropOffset(new long[3]);
+            source = image;
+        }
+        
+        context.setProgress(8);
+
+        IterableInterval<BitType> binarizedImage;
+        if (cellCache) {
+            binarizedImage = binarizeCached(source, context);
+        } else if (context.getSmoothingMode() == SmoothingMode.NATIVE_ANISOTROPIC) {
+            // Blurring the image at its native resolution
+            RandomAccessibleInterval<FloatType> blurredImage = cached(context, Stage.GAUSS,
+                    () -> ProcessImage.gaussPhysical(source, context.getSmoothingSigma(), context.getVoxelSize()),
+                    DropletPipeline::estimateImageSize);
+            
+            context.setProgress(15);
+            
+            binarizedImage = threshold(blurredImage, context);
+        } else {
+            // Rescale
+            RandomAccessibleInterval<T> rescaledImage = cached(context, Stage.RESCALE,
+                    () -> ProcessImage.rescaleImage(source, context.getScalingFactor(),
+                            context.getInterpolation(), context.isMaterializeRescaled()),
+                    rescaled -> context.isMaterializeRescaled() ? estimateImageSize(rescaled) : estimateStackSize(imp));
+            
+            context.setProgress(10);
+
+            // Blurring the image
+            RandomAccessibleInterval<T> blurredImage = cached(context, Stage.GAUSS,
+                    () -> opService.filter().gauss(rescaledImage, context.getSmoothingSigma()),
+                    DropletPipeline::estimateImageSize);
+            
+            context.setProgress(15);
+            
+            binarizedImage = threshold(blurredImage, context);
+        }
+        context.setBinarizedImage(binarizedImage);
+        
+        context.setProgress(20);
+        return binarizedImage;
+    }
+
+    /**
+     * Floute et binarise l'image par blocs, avec des images à cellules mises en cache ; le
+     * redimensionnement éventuel reste une vue paresseuse.
+     *
+     * Chaque résultat conservé par le cache des étapes est compté pour les cellules qu'il garde
+     * accessibles : sa propre part du plafond, ou celle de l'image dont il est une vue.
+     */
+    private <T extends RealType<T> & NativeType<T>> IterableInterval<BitType> binarizeCached(RandomAccessibleInterval<T> source, PipelineContext context) {
+        long memory = cellCacheShare(context);
+        RandomAccessibleInterval<FloatType> blurredImage;
+        if (context.getSmoothingMode() == SmoothingMode.NATIVE_ANISOTROPIC) {
+            double[] sigma = ProcessImage.physicalSigma(context.getSmoothingSigma(), context.getVoxelSize());
+            blurredImage = cached(context, Stage.GAUSS, () -> CachedCellImages.gauss(source, sigma, memory), image -> memory);
+        } else {
+            RandomAccessibleInterval<T> rescaledImage = cached(context, Stage.RESCALE,
+                    () -> ProcessImage.rescaleImage(source, context.getScalingFactor(), context.getInterpolation(), false),
+                    rescaled -> memory);
+            
+            context.setProgress(10);
+            
+            double sigma = context.getSmoothingSigma();
+            blurredImage = cached(context, Stage.GAUSS,
+                    () -> CachedCellImages.gauss(rescaledImage, new double[] {sigma, sigma, sigma}, memory), image -> memory);
+        }
+        
+        context.setProgress(15);
+        
+        RandomAccessibleInterval<FloatType> surfaceImage = context.getSurfaceDetection() == SurfaceDetection.SOBEL_EDGES
+                ? cached(context, Stage.EDGES, () -> CachedCellImages.sobel(blurredImage, memory), image -> memory)
+                : blurredImage;
+        context.setSurfaceImage(surfaceImage);
+        if (context.getSurfaceExtraction() == SurfaceExtraction.GRAYSCALE_ISOSURFACE) {
+            return isosurfaceLevel(surfaceImage, context);
+        }
+        if (context.getSurfaceDetection() == SurfaceDetection.SOBEL_EDGES) {
+            throw new IllegalArgumentException("Le seuil du gradient de Sobel donne une coque, qui ne peut pas être remplie "
+                    + "avec le cache de cellules : utiliser l'isosurface, ou désactiver le cache");
+        }
+        return cached(context, Stage.OTSU, () -> CachedCellImages.threshold(surfaceImage), image -> memory);
+    }
+
+    /**
+     * La part du plafond mémoire des cellules allouée à chaque image à cellules de la chaîne : la
+     * pile source, l'image floutée et, avec Sobel, la norme du gradient. Leurs cellules résidentes
+     * ne dépassent ainsi pas le plafond à elles toutes.
+     */
+    private static long cellCacheShare(PipelineContext context) {
+        int images = context.getSurfaceDetection() == SurfaceDetection.SOBEL_EDGES ? 3 : 2;
+        return context.getCellCacheMemory() / images;
+    }
+
+    /**
+     * Binarise l'image floutée, ou la norme de son gradient de Sobel, avec le seuil d'Otsu ; la
+     * coque obtenue sur le gradient est remplie.
+     */
+    @SuppressWarnings("unchecked")
+    private <B extends RealType<B>> IterableInterval<BitType> threshold(RandomAccessibleInterval<B> blurredImage, PipelineContext context) {
+        RandomAccessibleInterval<B> surfaceImage = context.getSurfaceDetection() == SurfaceDetection.SOBEL_EDGES
+                ? (RandomAccessibleInterval<B>) (Img<?>) cached(context, Stage.EDGES,
+                        () -> SobelEdgeDetector.gradientMagnitude(blurredImage), DropletPipeline::estimateImageSize)
+                : blurredImage;
+        context.setSurfaceImage(surfaceImage);
+        if (context.getSurfaceExtraction() == SurfaceExtraction.GRAYSCALE_ISOSURFACE) {
+            return isosurfaceLevel(surfaceImage, context);
+        }
+        return cached(context, Stage.OTSU, () -> {
+            IterableInterval<B> iterableSurfaceImage = Views.iterable(surfaceImage);
+            IterableInterval<BitType> mask = opService.threshold().otsu(iterableSurfaceImage);
+            // La coque du contour est remplie, pour que le maillage n'ait qu'une nappe
+            return context.getSurfaceDetection() == SurfaceDetection.SOBEL_EDGES
+                    ? ConnectedComponents.fillHoles((RandomAccessibleInterval<BitType>) mask) : mask;
+        }, image -> image.size() / 8);
+    }
+
+    /**
+     * Calcule le seuil d'Otsu de l'image (histogramme parallèle) et l'enregistre comme isovaleur
+     * de la surface.
+     *
+     * @return {@code null} : aucun masque n'est créé.
+     */
+    private <B extends RealType<B>> IterableInterval<BitType> isosurfaceLevel(RandomAccessibleInterval<B> surfaceImage, PipelineContext context) {
+        double isovalue = cached(context, Stage.OTSU, () -> ProcessImage.otsuLevel(surfaceImage, OTSU_BLOCK_SIZE), level -> 0);
+        context.setIsovalue(isovalue);
+        return null;
+    }
+
+    /**
+     * Extrait la surface de l'image binarisée par Marching Cubes, ou en mode isosurface celle
+     * de l'image floutée enregistrée dans le contexte. Les sommets dupliqués sont soudés et le
+     * maillage indexé est enregistré dans le contexte.
+     *
+     * @param binarizedImage L'image binarisée (ignorée en mode isosurface).
+     * @param context Le contexte d'exécution.
+     * @return Les sommets uniques du maillage obtenu.
+     */
+    @SuppressWarnings("unchecked")
+    public PointCloud marchingCubes(IterableInterval<BitType> binarizedImage, PipelineContext context) {
+        IndexedMesh mesh = cached(context, Stage.MARCHING_CUBES,
+                () -> context.getSurfaceExtraction() == SurfaceExtraction.GRAYSCALE_ISOSURFACE
+                        ? toMesh(extractIsosurface(context.getSurfaceImage(), context.getIsovalue()), new long[3], context)
+                        : extractMesh((RandomAccessibleInterval<BitType>) binarizedImage, new long[3], context),
+                IndexedMesh::estimateMemory);
+        context.setMesh(mesh);
+        context.setMeshPoints(mesh.getVertices());
+        
+        context.setProgress(35);
+        return mesh.getVertices();
+    }
+
+    /**
+     * Lisse le maillage extrait par {@link #marchingCubes} (voir {@link MeshSmoother}) pour
+     * atténuer ses marches d'escalier avant le rééchantillonnage. Sans itération, les sommets
+     * sont renvoyés tels quels.
+     *
+     * @param meshPoints Les sommets du maillage extrait.
+     * @param context Le contexte d'exécution, qui porte le maillage.
+     * @return Les sommets du maillage lissé.
+     */
+    public PointCloud smooth(PointCloud meshPoints, PipelineContext context) {
+        IndexedMesh mesh = context.getMesh();
+        IndexedMesh smoothedMesh = context.getMeshSmoothingIterations() == 0 ? mesh
+                : cached(context, Stage.SMOOTH, () -> MeshSmoother.taubin(mesh, context.getMeshSmoothingIterations()),
+                        smoothed -> smoothed.getVertices().estimateMemory());
+        context.setSmoothedMesh(smoothedMesh);
+
+        context.setProgress(40);
+        return smoothedMesh.getVertices();
+    }
+
+    /**
+     * Extrait la surface d'un masque par Marching Cubes et replace ses sommets dans le repère
+     * de l'image d'origine, en unités du voxel cible.
+     *
+     * @param mask Le masque binaire.
+     * @param maskOffset La position (x, y, z) du masque dans l'image binarisée, en voxels.
+     * @param context Le contexte d'exécution.
+     * @return Le maillage obtenu, aux sommets soudés.
+     */
+    private IndexedMesh extractMesh(RandomAccessibleInterval<BitType> mask, long[] maskOffset, PipelineContext context) {
+        Mesh mesh = opService.geom().marchingCubes(mask, 1);
+        IndexedMesh welded = MeshWelder.weld(mesh, MeshWelder.DEFAULT_TOLERANCE);
+        transformMeshPoints(welded.getVertices(), maskOffset, context);
+        return welded;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static float[] extractIsosurface(RandomAccessibleInterval<?> image, double isovalue) {
+        return SparseMarchingCubes.extract((RandomAccessibleInterval) image, isovalue);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static IterableInterval<BitType> thresholdSurface(RandomAccessibleInterval<?> image, double isovalue) {
+        return CachedCellImages.threshold((RandomAccessibleInterval) image, isovalue);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Img<FloatType> componentField(ConnectedComponents components, int label, RandomAccessibleInterval<?> image, double isovalue) {
+        return components.getComponentField(label, (RandomAccessibleInterval) image, isovalue);
+    }
+
+    /**
+     * Soude les triangles extraits d'une image et replace leurs sommets dans le repère de
+     * l'image d'origine, en unités du voxel cible.
+     *
+     * @param coordinates Les sommets des triangles (x, y, z consécutifs) dans l'image.
+     * @param maskOffset La position (x, y, z) de l'image dans l'image binarisée, en voxels.
+     * @param context Le contexte d'exécution.
+     * @return Le maillage indexé, replacé.
+     */
+    private static IndexedMesh toMesh(float[] coordinates, long[] maskOffset, PipelineContext context) {
+        IndexedMesh welded = MeshWelder.weld(coordinates, MeshWelder.DEFAULT_TOLERANCE);
+        transformMeshPoints(welded.getVertices(), maskOffset, context);
+        return welded;
+    }
+
+    /**
+     * Replace sur place les sommets extraits d'une image dans le repère de l'image d'origine,
+     * en unités du voxel cible.
+     *
+     * @param meshPoints Les sommets, dans les coordonnées de l'image.
+     * @param maskOffset La position (x, y, z) de l'image dans l'image binarisée, en voxels.
+     * @param context Le contexte d'exécution.
+     */
+    private static void transformMeshPoints(PointCloud meshPoints, long[] maskOffset, PipelineContext context) {
+        double[] scale = imageScale(context);
+        double[] origin = imageOrigin(context);
+        float sx = (float) scale[0];
+        float sy = (float) scale[1];
+        float sz = (float) scale[2];
+        float ox = (float) (maskOffset[0] * scale[0] + origin[0]);
+        float oy = (float) (maskOffset[1] * scale[1] + origin[1]);
+        float oz = (float) (maskOffset[2] * scale[2] + origin[2]);
+
+        float[] x = meshPoints.getX();
+        float[] y = meshPoints.getY();
+        float[] z = meshPoints.getZ();
+        for (int i = 0; i < meshPoints.size(); i++) {
+            x[i] = x[i] * sx + ox;
+            y[i] = y[i] * sy + oy;
+            z[i] = z[i] * sz + oz;
+        }
+    }
+
+    /**
+     * L'échelle (x, y, z) entre les voxels de l'image binarisée (ou floutée) et les coordonnées
+     * des points. En mode natif, le sur-échantillonnage est appliqué aux sommets plutôt qu'à
+     * l'image.
+     */
+    private static double[] imageScale(PipelineContext context) {
+        double[] scalingFactor = context.getScalingFactor();
+        return context.getSmoothingMode() == SmoothingMode.NATIVE_ANISOTROPIC
+                ? new double[] {scalingFactor[1], scalingFactor[2], scalingFactor[0]}
+                : new double[] {1, 1, 1};
+    }
+
+    /**
+     * La position (x, y, z) du premier voxel de l'image binarisée (ou floutée) dans les
+     * coordonnées des points : le décalage du recadrage, ramené dans les unités du voxel cible.
+     */
+    private static double[] imageOrigin(PipelineContext context) {
+        double[] scalingFactor = context.getScalingFactor();
+        long[] offset = context.getCropOffset();
+        return new double[] {offset[0] * scalingFactor[1], offset[1] * scalingFactor[2], offset[2] * scalingFactor[0]};
+    }
+
+    /**
+     * Rééchantillonne les sommets du maillage sur une grille de Fibonacci.
+     *
+     * @param meshPoints Les sommets du maillage.
+     * @param context Le contexte d'exécution.
+     * @return Les points rééchantillonnés.
+     */
+    public PointCloud resample(PointCloud meshPoints, PipelineContext context) {
+        PointCloud resampledPoints = cached(context, Stage.RESAMPLE,
+                () -> ResamplePointCloud.resamplePointCloud(meshPoints, context.getResamplingLength()),
+                PointCloud::estimateMemory);
+        context.setResampledPoints(resampledPoints);
+        
+        context.setProgress(65);
+        return resampledPoints;
+    }
+
+    /**
+     * Affine les points rééchantillonnés sur l'image floutée (ou la norme de son gradient) :
+     * à chaque itération, les points sont déplacés vers le bord (ou le pic) de leur profil le
+     * long de la normale, puis rééchantillonnés avant l'itération suivante. Sans itération, les
+     * points sont renvoyés tels quels.
+     *
+     * @param resampledPoints Les points rééchantillonnés.
+     * @param context Le contexte d'exécution.
+     * @return Les points affinés.
+     */
+    public PointCloud refine(PointCloud resampledPoints, PipelineContext context) {
+        PointCloud refinedPoints = context.getRefinementIterations() == 0 ? resampledPoints
+                : cached(context, Stage.REFINE, () -> refineSurface(resampledPoints, context), PointCloud::estimateMemory);
+        context.setRefinedPoints(refinedPoints);
+
+        context.setProgress(75);
+        return refinedPoints;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static PointCloud refineSurface(PointCloud points, PipelineContext context) {
+        RandomAccessibleInterval image = context.getSurfaceImage();
+        SurfaceRefiner.ProfileFit fit = context.getSurfaceDetection() == SurfaceDetection.SOBEL_EDGES
+                ? SurfaceRefiner.ProfileFit.PEAK : SurfaceRefiner.ProfileFit.EDGE;
+        double[] scale = imageScale(context);
+        double[] origin = imageOrigin(context);
+        for (int iteration = 0; iteration < context.getRefinementIterations(); iteration++) {
+            if (iteration > 0) {
+                points = ResamplePointCloud.resamplePointCloud(points, context.getResamplingLength());
+            }
+            points = SurfaceRefiner.refine(image, scale, origin, points, context.getTraceLength(),
+                    context.getSamplingDistance(), fit, context.getOutlierTolerance());
+        }
+        return points;
+    }
+
+    /**
+     * Supprime les points aberrants avant l'ajustement de l'ellipsoïde et des harmoniques
+     * sphériques (voir {@link OutlierFilter}). Sans rejet, les points sont renvoyés tels quels.
+     *
+     * @param refinedPoints Les points affinés.
+     * @param context Le contexte d'exécution.
+     * @return Les points retenus.
+     */
+    public PointCloud removeOutliers(PointCloud refinedPoints, PipelineContext context) {
+        PointCloud filteredPoints = context.getOutlierRejection() == OutlierFilter.Mode.NONE ? refinedPoints
+                : cached(context, Stage.OUTLIERS, () -> filterOutliers(refinedPoints, context), PointCloud::estimateMemory);
+        context.setFilteredPoints(filteredPoints);
+
+        context.setProgress(80);
+        return filteredPoints;
+    }
+
+    /**
+     * Filtre les points en gardant au moins autant de points que d'inconnues de l'ajustement des
+     * harmoniques sphériques.
+     */
+    private static PointCloud filterOutliers(PointCloud points, PipelineContext context) {
+        int unknowns = (context.getMaxDegree() + 1) * (context.getMaxDegree() + 1);
+        return OutlierFilter.filter(points, context.getOutlierRejection(), context.getRejectionThreshold(),
+                unknowns, context.getLinearAlgebra());
+    }
+
+    /**
+     * Ajuste les harmoniques sphériques sur les points rééchantillonnés (et affinés).
+     *
+     * @param resampledPoints Les points rééchantillonnés.
+     * @param context Le contexte d'exécution.
+     * @return Les points ajustés.
+     */
+    public PointCloud fitSphericalHarmonics(PointCloud resampledPoints, PipelineContext context) {
+        SphericalHarmonicsExpansion expansion = cached(context, Stage.SPHERICAL_HARMONICS, () -> {
+            SphericalHarmonicsExpansion sphericalHarmonics = newExpansion(resampledPoints, context);
+            sphericalHarmonics.expand();
+            return sphericalHarmonics;
+        }, fit -> fit.getFittedPoints().estimateMemory());
+        PointCloud fittedPoints = expansion.getFittedPoints();
+        context.setEllipsoid(expansion.getEllipsoidExpander());
+        context.setSphericalHarmonics(expansion);
+        context.setFittedPoints(fittedPoints);
+        
+        context.setProgress(90);
+        return fittedPoints;
+    }
+
+    private static SphericalHarmonicsExpansion newExpansion(PointCloud points, PipelineContext context) {
+        SphericalHarmonicsExpansion expansion = new SphericalHarmonicsExpansion(points, context.getMaxDegree());
+        expansion.setFitMethod(context.getFitMethod());
+        expansion.setRegularization(context.getRegularization());
+        expansion.setLebedevOrder(context.getLebedevOrder());
+        expansion.setBackend(context.getLinearAlgebra());
+        return expansion;
+    }
+
+    /**
+     * Exécute toutes les étapes sur une pile d'images ; les résultats sont enregistrés dans le contexte.
+     *
+     * @param imp La pile d'images de la gouttelette.
+     * @param context Le contexte d'exécution.
+     */
+    public void run(ImagePlus imp, PipelineContext context) {
+        IterableInterval<BitType> binarizedImage = binarize(imp, context);
+        PointCloud meshPoints = marchingCubes(binarizedImage, context);
+        PointCloud smoothedPoints = smooth(meshPoints, context);
+        PointCloud resampledPoints = resample(smoothedPoints, context);
+        PointCloud refinedPoints = refine(resampledPoints, context);
+        PointCloud filteredPoints = removeOutliers(refinedPoints, context);
+        fitSphericalHarmonics(filteredPoints, context);
+        context.setProgress(100);
+    }
+
+    /**
+     * Traite un champ contenant plusieurs gouttelettes : l'image binarisée est découpée en
+     * composantes connexes, et chaque composante d'au moins
+     * {@link PipelineContext#getMinDropletSize()} voxels suit sa propre chaîne (maillage,
+     * lissage, rééchantillonnage, affinage, rejet des points aberrants, ellipsoïde et
+     * harmoniques sphériques), en parallèle.
+     *
+     * @param imp La pile d'images du champ.
+     * @param context Le contexte d'exécution du champ.
+     * @return Le contexte de chaque gouttelette, indexé par l'étiquette de sa composante.
+     */
+    @SuppressWarnings("unchecked")
+    public SortedMap<Integer, PipelineContext> runMultiDroplet(ImagePlus imp, PipelineContext context) {
+        IterableInterval<BitType> mask = binarize(imp, context);
+        if (mask == null) {
+            // En mode isosurface, les gouttelettes sont séparées sur le masque du même seuil
+            mask = thresholdSurface(context.getSurfaceImage(), context.getIsovalue());
+        }
+        RandomAccessibleInterval<BitType> binarizedImage = (RandomAccessibleInterval<BitType>) mask;
+        ConnectedComponents components = ConnectedComponents.label(binarizedImage);
+        
+        context.setProgress(30);
+
+        Map<Integer, PipelineContext> droplets = new ConcurrentHashMap<>();
+        IntStream.rangeClosed(1, components.getNumComponents())
+                .filter(label -> components.getSize(label) >= context.getMinDropletSize())
+                .parallel()
+                .forEach(label -> {
+                    PipelineContext droplet = context.createChildContext();
+
+                    // Le masque de la composante a une marge d'un voxel autour de sa boîte englobante
+                    Interval bounds = components.getBounds(label);
+                    long[] maskOffset = new long[3];
+                    for (int d = 0; d < 3; d++) {
+                        maskOffset[d] = bounds.min(d) - 1 - binarizedImage.min(d);
+                    }
+                    // En mode isosurface, la surface sub-voxel est extraite de l'image de la composante
+                    IndexedMesh mesh = context.getSurfaceExtraction() == SurfaceExtraction.GRAYSCALE_ISOSURFACE
+                            ? toMesh(extractIsosurface(componentField(components, label, context.getSurfaceImage(),
+                                    context.getIsovalue()), context.getIsovalue()), maskOffset, context)
+                            : extractMesh(components.getComponentMask(label), maskOffset, context);
+                    PointCloud meshPoints = mesh.getVertices();
+                    droplet.setMesh(mesh);
+                    droplet.setMeshPoints(meshPoints);
+
+                    IndexedMesh smoothedMesh = MeshSmoother.taubin(mesh, context.getMeshSmoothingIterations());
+                    droplet.setSmoothedMesh(smoothedMesh);
+
+                    PointCloud resampledPoints = ResamplePointCloud.resamplePointCloud(smoothedMesh.getVertices(), context.getResamplingLength());
+                    droplet.setResampledPoints(resampledPoints);
+
+                    PointCloud refinedPoints = context.getRefinementIterations() == 0 ? resampledPoints
+                            : refineSurface(resampledPoints, context);
+                    droplet.setRefinedPoints(refinedPoints);
+
+                    PointCloud filteredPoints = filterOutliers(refinedPoints, context);
+                    droplet.setFilteredPoints(filteredPoints);
+
+                    SphericalHarmonicsExpansion expansion = newExpansion(filteredPoints, context);
+                    droplet.setFittedPoints(expansion.expand());
+                    droplet.setEllipsoid(expansion.getEllipsoidExpander());
+                    droplet.setSphericalHarmonics(expansion);
+
+                    droplets.put(label, droplet);
+                });
+
+        context.setProgress(100);
+        return new TreeMap<>(droplets);
+    }
+
+    /**
+     * Vide le cache des étapes : à appeler lorsqu'une nouvelle image est chargée, les résultats
+     * de la précédente ne pouvant plus servir.
+     */
+    public void clearCache() {
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Exécute une étape, ou renvoie son résultat depuis le cache s'il a déjà été calculé
+     * avec les mêmes entrées et les mêmes paramètres.
+     */
+    private <V> V cached(PipelineContext context, Stage stage, Supplier<V> compute, ToLongFunction<V> sizeEstimate) {
+        if (cache == null) {
+            return compute.get();
+        }
+        return cache.getOrCompute(stageKey(context, stage), compute, sizeEstimate);
+    }
+
+    /**
+     * Construit la clé d'une étape : l'identifiant de l'image source, puis le nom et les
+     * paramètres de chaque étape jusqu'à celle demandée. La clé ne retient pas l'image : seuls
+     * les résultats qui en sont des vues la retiennent, et leur taille estimée la compte.
+     */
+    private static List<Object> stageKey(PipelineContext context, Stage stage) {
+        List<Object> key = new ArrayList<>();
+        key.add(context.getSourceImage().getID());
+        for (Stage s : Stage.values()) {
+            key.add(s);
+            switch (s) {
+            case CROP:
+                key.add(context.isCropToDroplet());
+                key.add(context.getCropMargin());
+                key.add(context.getCellCacheMemory() > 0);
+                break;
+            case RESCALE:
+                key.add(Arrays.toString(context.getScalingFactor()));
+                key.add(context.getInterpolation());
+                key.add(context.isMaterializeRescaled());
+                break;
+            case GAUSS:
+                key.add(context.getSmoothingMode());
+                key.add(context.getSmoothingSigma());
+                break;
+            case EDGES:
+                key.add(context.getSurfaceDetection());
+                break;
+            case OTSU:
+                // Le masque, ou en mode isosurface le seul niveau du seuil
+                key.add(context.getSurfaceExtraction());
+                break;
+            case SMOOTH:
+                key.add(context.getMeshSmoothingIterations());
+                break;
+            case RESAMPLE:
+                key.add(context.getResamplingLength());
+                break;
+            case REFINE:
+                key.add(context.getRefinementIterations());
+                key.add(context.getTraceLength());
+                key.add(context.getSamplingDistance());
+                key.add(context.getOutlierTolerance());
+                break;
+            case OUTLIERS:
+                key.add(context.getOutlierRejection());
+                key.add(context.getRejectionThreshold());
+                // Le nombre minimal de points retenus et les factorisations de l'ellipsoïde
+                key.add(context.getMaxDegree());
+                key.add(context.getLinearAlgebra());
+                break;
+            case SPHERICAL_HARMONICS:
+                key.add(context.getMaxDegree());
+                key.add(context.getFitMethod());
+                key.add(context.getRegularization());
+                key.add(context.getLebedevOrder());
+                key.add(context.getLinearAlgebra());
+                break;
+            default:
+                break;
+            }
+            if (s == stage) {
+                break;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return La taille (en octets) des plans de la pile en mémoire, nulle pour une pile virtuelle.
+     */
+    private static long estimateStackSize(ImagePlus imp) {
+        if (imp.getStack().isVirtual()) {
+            return 0;
+        }
+        return (long) imp.getWidth() * imp.getHeight() * imp.getStackSize() * ((imp.getBitDepth() + 7) / 8);
+    }
+
+    private static <T extends RealType<T>> long estimateImageSize(RandomAccessibleInterval<T> image) {
+        return Intervals.numElements(image) * Util.getTypeFromInterval(image).getBitsPerPixel() / 8;
+    }
+}
@@ -0,0 +1,280 @@
+package com.mycompany.imagej;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.IJ;
+import ij.ImagePlus;
+import net.imagej.ImageJ;
+import net.imagej.ops.OpService;
+
+/**
+ * Commande de traitement par lot : applique la chaîne de traitement à toutes les piles
+ * d'un dossier, sans interface graphique, sur un nombre borné de threads.
+ *
+ * Pour chaque gouttelette, les fichiers {@code <nom>_resampled.csv} et {@code <nom>_fitted.csv}
+ * (et {@code <nom>_refined.csv} si la surface est affinée) sont écrits dans le dossier de
+ * sortie ; en mode multi-gouttelettes, le nom est suivi de l'étiquette de la composante
+ * ({@code <nom>_droplet<n>_fitted.csv}).
+ */
+@Plugin(type = Command.class, menuPath = "Plugins>3D Droplets Stress (Batch)", headless = true)
+public class DropletsStressBatch implements Command {
+
+    @Parameter
+    private OpService opService;
+
+    @Parameter
+    private LogService log;
+
+    @Parameter(label = "Input folder", style = "directory")
+    private File inputFolder;
+
+    @Parameter(label = "File extension")
+    private String fileExtension = ".tif";
+
+    @Parameter(label = "Several droplets per stack")
+    private boolean multiDroplet = false;
+
+    @Parameter(label = "Minimum droplet size (voxels)", min = "1")
+    private long minDropletSize = 1000;
+
+    @Parameter(label = "Crop to droplet")
+    private boolean cropToDroplet = true;
+
+    @Parameter(label = "Crop margin (voxels)", min = "0")
+    private long cropMargin = 10;
+
+    @Parameter(label = "Smoothing mode", choices = { "Upsampled isotropic", "Native anisotropic" })
+    private String smoothingMode = "Upsampled isotropic";
+
+    @Parameter(label = "Smoothing Sigma", min = "0", description = "In target voxels, or in microns in native anisotropic mode")
+    private double smoothingSigma = 1;
+
+    @Parameter(label = "Surface detection", choices = { "Intensity", "Sobel edges" })
+    private String surfaceDetection = "Intensity";
+
+    @Parameter(label = "Surface extraction", choices = { "Binary mask", "Grayscale isosurface" })
+    private String surfaceExtraction = "Binary mask";
+
+    @Parameter(label = "Mesh smoothing iterations", min = "0", description = "Taubin smoothing iterations of the marching cubes mesh before resampling; 0 keeps the raw mesh")
+    private int meshSmoothingIterations = 0;
+
+    @Parameter(label = "Resampling Length", min = "0")
+    private double resamplingLength = 2.5;
+
+    @Parameter(label = "Refinement iterations", min = "0", description = "Tracing iterations of the surface along the normals; 0 keeps the resampled points")
+    private int refinementIterations = 0;
+
+    @Parameter(label = "Trace length", min = "0", description = "In target voxels")
+    private double traceLength = 12;
+
+    @Parameter(label = "Trace sampling distance", min = "0", description = "In target voxels")
+    private double samplingDistance = 0.1;
+
+    @Parameter(label = "Outlier tolerance", min = "0", description = "Factor of the interquartile range of the refinement displacements")
+    private double outlierTolerance = 0.5;
+
+    @Parameter(label = "Outlier rejection", choices = { "None", "kNN distance", "Ellipsoid residual" }, description = "Statistic used to drop outlying points before the ellipsoid and spherical harmonics fits")
+    private String outlierRejection = "None";
+
+    @Parameter(label = "Rejection threshold", min = "0", description = "In robust standard deviations from the median")
+    private double rejectionThreshold = 3;
+
+    @Parameter(label = "Max Degree for Spherical Harmonics", min = "0")
+    private int maxDegree = 5;
+
+    @Parameter(label = "Spherical harmonics solver", choices = { "QR", "Normal equations", "Lebedev quadrature" }, description = "Normal equations stream the points and use memory independent of their number; Lebedev quadrature projects on a fixed grid without factorization (degree 8 at most)")
+    private String fitMethod = "QR";
+
+    @Parameter(label = "Regularization", min = "0", description = "Tikhonov weight of the normal equations, scaled by l(l+1) for each degree")
+    private double regularization = 0;
+
+    @Parameter(label = "Lebedev grid points", choices = { "Auto", "6", "14", "26", "38", "50", "86", "110" }, description = "Nodes of the Lebedev quadrature; Auto takes the smallest grid exact for the max degree")
+    private String lebedevOrder = "Auto";
+
+    @Parameter(label = "Linear algebra", choices = { "Commons Math", "Parallel" }, description = "Parallel uses multithreaded QR and Cholesky factorizations on flat arrays")
+    private String linearAlgebra = "Commons Math";
+
+    @Parameter(label = "Rescaling interpolation", choices = { "Nearest neighbor", "Linear", "Lanczos" })
+    private String interpolation = "Nearest neighbor";
+
+    @Parameter(label = "Cell cache memory (MB)", min = "0", description = "0 loads each stack in memory; otherwise stacks are read and filtered block by block")
+    private long cellCacheMemory = 0;
+
+    @Parameter(label = "Output folder", style = "directory")
+    private File outputFolder;
+
+    @Parameter(label = "Number of threads", min = "1")
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    @Override
+    public void run() {
+        File[] files = inputFolder.listFiles((dir, name) -> name.toLowerCase().endsWith(fileExtension.toLowerCase()));
+        if (files == null || files.length == 0) {
+            log.warn("Aucune image trouvée dans " + inputFolder);
+            return;
+        }
+        if (parseFitMethod(fitMethod) == SphericalHarmonicsExpansion.FitMethod.LEBEDEV_QUADRATURE) {
+            // Vérifié une fois ici plutôt qu'en échec sur chaque fichier
+            try {
+                SphericalHarmonicsExpansion.lebedevGrid(maxDegree, parseLebedevOrder(lebedevOrder));
+            } catch (IllegalArgumentException e) {
+                log.error(e.getMessage());
+                return;
+            }
+        }
+        Arrays.sort(files);
+        outputFolder.mkdirs();
+
+        DropletPipeline pipeline = new DropletPipeline(opService);
+
+        // Un thread traite une gouttelette à la fois : le pool borne le nombre de piles en mémoire
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, files.length));
+        List<Future<?>> futures = new ArrayList<>();
+        for (File file : files) {
+            futures.add(executor.submit(() -> processFile(pipeline, file)));
+        }
+        executor.shutdown();
+
+        int failed = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                failed++;
+                log.error("Erreur lors du traitement de " + files[i].getName(), e.getCause());
+            }
+        }
+        log.info((files.length - failed) + "/" + files.length + " gouttelettes traitées");
+    }
+
+    /**
+     * Traite une pile d'images et écrit ses résultats dans le dossier de sortie.
+     *
+     * @param pipeline La chaîne de traitement.
+     * @param file Le fichier de la pile d'images.
+     */
+    private void processFile(DropletPipeline pipeline, File file) {
+        // Avec le cache de cellules, la pile est lue plan par plan à la demande
+        ImagePlus imp = cellCacheMemory > 0 ? IJ.openVirtual(file.getPath()) : IJ.openImage(file.getPath());
+        if (imp == null) {
+            throw new IllegalArgumentException("Impossible d'ouvrir l'image " + file);
+        }
+
+        PipelineContext context = new PipelineContext(smoothingSigma, resamplingLength, maxDegree);
+        context.setInterpolation(parseInterpolation(interpolation));
+        context.setCropToDroplet(cropToDroplet);
+        context.setCropMargin(cropMargin);
+        context.setSmoothingMode("Native anisotropic".equals(smoothingMode)
+                ? DropletPipeline.SmoothingMode.NATIVE_ANISOTROPIC
+                : DropletPipeline.SmoothingMode.UPSAMPLED_ISOTROPIC);
+        context.setSurfaceDetection("Sobel edges".equals(surfaceDetection)
+                ? DropletPipeline.SurfaceDetection.SOBEL_EDGES
+                : DropletPipeline.SurfaceDetection.INTENSITY);
+        context.setSurfaceExtraction("Grayscale isosurface".equals(surfaceExtraction)
+                ? DropletPipeline.SurfaceExtraction.GRAYSCALE_ISOSURFACE
+                : DropletPipeline.SurfaceExtraction.BINARY_MASK);
+        context.setMeshSmoothingIterations(meshSmoothingIterations);
+        context.setRefinementIterations(refinementIterations);
+        context.setTraceLength(traceLength);
+        context.setSamplingDistance(samplingDistance);
+        context.setOutlierTolerance(outlierTolerance);
+        context.setOutlierRejection(parseOutlierRejection(outlierRejection));
+        context.setRejectionThreshold(rejectionThreshold);
+        context.setFitMethod(parseFitMethod(fitMethod));
+        context.setRegularization(regularization);
+        context.setLebedevOrder(parseLebedevOrder(lebedevOrder));
+        context.setLinearAlgebra("Parallel".equals(linearAlgebra)
+                ? LinearAlgebraBackend.PARALLEL
+                : LinearAlgebraBackend.COMMONS_MATH);
+        context.setMinDropletSize(minDropletSize);
+        context.setCellCacheMemory(cellCacheMemory << 20);
+
+        String baseName = stripExtension(file.getName());
+        if (multiDroplet) {
+            for (Map.Entry<Integer, PipelineContext> droplet : pipeline.runMultiDroplet(imp, context).entrySet()) {
+                writeResults(droplet.getValue(), baseName + "_droplet" + droplet.getKey());
+            }
+        } else {
+            pipeline.run(imp, context);
+            writeResults(context, baseName);
+        }
+    }
+
+    private void writeResults(PipelineContext context, String baseName) {
+        String directory = outputFolder.getPath() + File.separator;
+        SphericalHarmonicsExpansion.writePointsToFile(context.getResampledPoints(), directory, baseName + "_resampled.csv");
+        if (context.getRefinementIterations() > 0) {
+            SphericalHarmonicsExpansion.writePointsToFile(context.getRefinedPoints(), directory, baseName + "_refined.csv");
+        }
+        SphericalHarmonicsExpansion.writePointsToFile(context.getFittedPoints(), directory, baseName + "_fitted.csv");
+    }
+
+    private static SphericalHarmonicsExpansion.FitMethod parseFitMethod(String choice) {
+        switch (choice) {
+        case "Normal equations":
+            return SphericalHarmonicsExpansion.FitMethod.NORMAL_EQUATIONS;
+        case "Lebedev quadrature":
+            return SphericalHarmonicsExpansion.FitMethod.LEBEDEV_QUADRATURE;
+        default:
+            return SphericalHarmonicsExpansion.FitMethod.QR;
+        }
+    }
+
+    private static int parseLebedevOrder(String choice) {
+        return "Auto".equals(choice) ? 0 : Integer.parseInt(choice);
+    }
+
+    private static OutlierFilter.Mode parseOutlierRejection(String choice) {
+        switch (choice) {
+        case "kNN distance":
+            return OutlierFilter.Mode.KNN_DISTANCE;
+        case "Ellipsoid residual":
+            return OutlierFilter.Mode.ELLIPSOID_RESIDUAL;
+        default:
+            return OutlierFilter.Mode.NONE;
+        }
+    }
+
+    private static ProcessImage.Interpolation parseInterpolation(String choice) {
+        switch (choice) {
+        case "Linear":
+            return ProcessImage.Interpolation.LINEAR;
+        case "Lanczos":
+            return ProcessImage.Interpolation.LANCZOS;
+        default:
+            return ProcessImage.Interpolation.NEAREST;
+        }
+    }
+
+    private static String stripExtension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    public static void main(final String... args) throws Exception {
+
+        final ImageJ ij = new ImageJ();
+
+        // invoke the plugin
+        ij.command().run(DropletsStressBatch.class, true);
+
+    }
+
+}
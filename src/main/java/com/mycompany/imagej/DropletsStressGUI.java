@@ -8,8 +8,6 @@ import java.awt.GridLayout;
 import java.awt.Image;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.ArrayList;
-import java.util.List;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -33,21 +31,17 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import org.scijava.vecmath.Color3f;
-import org.scijava.vecmath.Point3f;
 
 import customnode.CustomPointMesh;
 import ij.ImagePlus;
 import ij.io.OpenDialog;
 import ij3d.Image3DUniverse;
-import net.imagej.mesh.Mesh;
-import net.imagej.mesh.Vertices;
 import net.imagej.ops.OpService;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.view.Views;
 
 public class DropletsStressGUI extends JFrame {
 	
@@ -55,6 +49,7 @@ public class DropletsStressGUI extends JFrame {
 
 
 	private OpService opService;
+	private DropletPipeline pipeline;
     //---top left panel---//
 	 private JPanel leftPanel;
     private JPanel topLeftPanel;
@@ -74,13 +69,13 @@ public class DropletsStressGUI extends JFrame {
     private JPanel pointCloudImage;
     private JPanel spherical_harmonicsImage;
     private JButton finalizeButton;
-    private static JProgressBar progressBar;
+    private JProgressBar progressBar;
     //---point display panel---//
 	private JPanel pointsDisplayPanel;
 	private JTextArea pointsTextArea;
     //---results---//
-    private List<Point3f> fitted_points;
-    private List<Point3f> resampled_points;
+    private PointCloud fitted_points;
+    private PointCloud resampled_points;
     
     //largeur et hauteur d'image
     int width = 400;
@@ -96,6 +91,8 @@ public class DropletsStressGUI extends JFrame {
         setLayout(new BorderLayout());
         
         this.opService = opService;
+        // Les résultats des étapes sont conservés d'une prévisualisation à l'autre
+        this.pipeline = new DropletPipeline(opService, StageCache.withHeapFraction(0.5));
 
         // Create the left panel
         leftPanel = new JPanel(new BorderLayout());
@@ -232,6 +229,8 @@ public class DropletsStressGUI extends JFrame {
         String fileName = openDialog.getFileName();
         if (directory != null && fileName != null) {
         	this.originalImagePlus = new ImagePlus(directory + fileName);
+        	// Les résultats en cache concernent l'image précédente
+        	pipeline.clearCache();
             this.originalImage.add(getPreviewWindow(this.originalImagePlus)); // Add preview window with slice slider
             this.originalImage.validate();
             this.originalImage.repaint();
@@ -247,28 +246,13 @@ public class DropletsStressGUI extends JFrame {
         double resampling_length = (double)resamplingLength.getValue() ;
         int max_degree = (int)maxDegreSH.getValue() ;
         
-        setProgressBar(5);
-        
-        RandomAccessibleInterval<T> source = (RandomAccessibleInterval<T>) ImageJFunctions.wrap(imp);
-        ProcessImage.initializeTargetScalingFactor(imp);
-        
-        setProgressBar(8);
-        
-        // Rescale
-        RandomAccessibleInterval<T> rescaled_image = ProcessImage.rescaleImage(source, ProcessImage.scalingFactor);
+        PipelineContext context = new PipelineContext(smoothingSigma, resampling_length, max_degree);
+        context.setProgressListener(this::setProgressBar);
         
-        setProgressBar(10);
-        
-        // Blurring the image
-        RandomAccessibleInterval<T> blurred_image = opService.filter().gauss(rescaled_image, smoothingSigma);
-        
-        setProgressBar(15);
-        
-        // Binarization
-        IterableInterval<T> iterableBlurredImage = Views.iterable(blurred_image);
-        IterableInterval<BitType> binarized_image = opService.threshold().otsu(iterableBlurredImage);
+        setProgressBar(5);
         
-        setProgressBar(20);
+        // Rescale, blur and binarization
+        IterableInterval<BitType> binarized_image = pipeline.binarize(imp, context);
         
         binarizedImage.removeAll();
         binarizedImage.add(getPreviewWindow(ImageJFunctions.wrap((RandomAccessibleInterval<T>) binarized_image, null)));
@@ -278,23 +262,9 @@ public class DropletsStressGUI extends JFrame {
         setProgressBar(25);
 
         //Marching cube
-        Mesh mesh = opService.geom().marchingCubes((RandomAccessibleInterval<T>) binarized_image, 1);
-        
-        setProgressBar(30);
-        
-        Vertices vertices = mesh.vertices();
-
-        setProgressBar(32);
-        
-        // Create a CustomMesh from them
-     	List<Point3f> custom_mesh = new ArrayList<Point3f>();
-     	for(int i = 0; i < vertices.size(); i++) {
-     		custom_mesh.add(new Point3f(vertices.xf(i), vertices.yf(i), vertices.zf(i)));
-     	}
-
-     	setProgressBar(35);
+        PointCloud custom_mesh = pipeline.marchingCubes(binarized_image, context);
      	
-     	CustomPointMesh cm1 = new CustomPointMesh(custom_mesh);
+     	CustomPointMesh cm1 = new CustomPointMesh(custom_mesh.toPoint3fList());
      	cm1.setColor(new Color3f(255,255,255));
      	cm1.setPointSize(2);
      	
@@ -320,12 +290,11 @@ public class DropletsStressGUI extends JFrame {
      	setProgressBar(55);
      	
     	//Point Cloud 
-        this.resampled_points = ResamplePointCloud.resamplePointCloud(custom_mesh, resampling_length);
+        PointCloud smoothed_points = pipeline.smooth(custom_mesh, context);
+        this.resampled_points = pipeline.resample(smoothed_points, context);
      	
-
-     	setProgressBar(65);
         
-     	CustomPointMesh cm2 = new CustomPointMesh(this.resampled_points);
+     	CustomPointMesh cm2 = new CustomPointMesh(this.resampled_points.toPoint3fList());
      	cm2.setColor(new Color3f(255,255,255));
      	cm2.setPointSize(2);
      	
@@ -351,15 +320,15 @@ public class DropletsStressGUI extends JFrame {
 
      	setProgressBar(85);
      	
-        this.fitted_points = new SphericalHarmonicsExpansion(resampled_points, max_degree).expand();
-        
-        setProgressBar(90);
+        PointCloud refined_points = pipeline.refine(resampled_points, context);
+        PointCloud filtered_points = pipeline.removeOutliers(refined_points, context);
+        this.fitted_points = pipeline.fitSphericalHarmonics(filtered_points, context);
         
         SphericalHarmonicsExpansion.printPoints3D2(fitted_points, pointsTextArea);
         
      	setProgressBar(93);
      	
-     	CustomPointMesh cm3 = new CustomPointMesh(this.fitted_points);
+     	CustomPointMesh cm3 = new CustomPointMesh(this.fitted_points.toPoint3fList());
      	cm3.setColor(new Color3f(255,255,255));
      	cm3.setPointSize(2);
      	
@@ -470,7 +439,7 @@ public class DropletsStressGUI extends JFrame {
         }
     }
     
-	public static void setProgressBar(int value) {
+	public void setProgressBar(int value) {
 		progressBar.setValue(value);
 	}
     
@@ -0,0 +1,92 @@
+package com.mycompany.imagej;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.IJ;
+import ij.ImagePlus;
+import net.imagej.ImageJ;
+import net.imagej.ops.OpService;
+
+/**
+ * Commande de traitement d'une série temporelle : la pile est ouverte en mode virtuel et
+ * traitée temps par temps, et les coefficients des harmoniques sphériques de chaque temps
+ * sont écrits dans une table CSV.
+ */
+@Plugin(type = Command.class, menuPath = "Plugins>3D Droplets Stress (Time-lapse)", headless = true)
+public class DropletsStressTimeLapse implements Command {
+
+    @Parameter
+    private OpService opService;
+
+    @Parameter
+    private LogService log;
+
+    @Parameter(label = "Time-lapse stack")
+    private File inputFile;
+
+    @Parameter(label = "Crop to droplet")
+    private boolean cropToDroplet = true;
+
+    @Parameter(label = "Crop margin (voxels)", min = "0")
+    private long cropMargin = 10;
+
+    @Parameter(label = "Smoothing mode", choices = { "Upsampled isotropic", "Native anisotropic" })
+    private String smoothingMode = "Upsampled isotropic";
+
+    @Parameter(label = "Smoothing Sigma", min = "0", description = "In target voxels, or in microns in native anisotropic mode")
+    private double smoothingSigma = 1;
+
+    @Parameter(label = "Resampling Length", min = "0")
+    private double resamplingLength = 2.5;
+
+    @Parameter(label = "Max Degree for Spherical Harmonics", min = "0")
+    private int maxDegree = 5;
+
+    @Parameter(label = "Coefficients table", style = "save")
+    private File outputFile;
+
+    @Override
+    public void run() {
+        ImagePlus movie = IJ.openVirtual(inputFile.getPath());
+        if (movie == null) {
+            log.error("Impossible d'ouvrir l'image " + inputFile);
+            return;
+        }
+
+        PipelineContext settings = new PipelineContext(smoothingSigma, resamplingLength, maxDegree);
+        settings.setCropToDroplet(cropToDroplet);
+        settings.setCropMargin(cropMargin);
+        settings.setSmoothingMode("Native anisotropic".equals(smoothingMode)
+                ? DropletPipeline.SmoothingMode.NATIVE_ANISOTROPIC
+                : DropletPipeline.SmoothingMode.UPSAMPLED_ISOTROPIC);
+        settings.setProgressListener(value -> log.info("Série temporelle : " + value + " %"));
+
+        TimeLapseProcessor processor = new TimeLapseProcessor(new DropletPipeline(opService));
+        try (Writer output = new BufferedWriter(new FileWriter(outputFile))) {
+            processor.process(movie, settings, output);
+        } catch (IOException e) {
+            log.error("Erreur lors de l'écriture de " + outputFile, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(final String... args) throws Exception {
+
+        final ImageJ ij = new ImageJ();
+
+        // invoke the plugin
+        ij.command().run(DropletsStressTimeLapse.class, true);
+
+    }
+
+}
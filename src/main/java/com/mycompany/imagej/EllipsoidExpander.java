@@ -1,20 +1,13 @@
 package com.mycompany.imagej;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Random;
 
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
-import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.RealVector;
-import org.apache.commons.math3.linear.DecompositionSolver;
-import org.apache.commons.math3.linear.QRDecomposition;
 import org.apache.commons.math3.linear.EigenDecomposition;
 import org.apache.commons.math3.linear.LUDecomposition;
 
-import org.scijava.vecmath.Point3f;
-
 
 public class EllipsoidExpander {
 
@@ -22,6 +15,7 @@ public class EllipsoidExpander {
     private double[] axes;
     private double[][] eigenvectors;
     private double[] coefficients;
+    private LinearAlgebraBackend backend = LinearAlgebraBackend.COMMONS_MATH;
 
     public EllipsoidExpander() {
     }
@@ -54,35 +48,45 @@ public class EllipsoidExpander {
     	return coefficients;
     }
 
+    /**
+     * @param backend Les factorisations utilisées par l'ajustement.
+     */
+    public void setBackend(LinearAlgebraBackend backend) {
+    	this.backend = backend;
+    }
+
     
 
-    public double[][] fit(List<Point3f> points) {
+    public double[][] fit(PointCloud points) {
         coefficients = fitEllipsoidToPoints(points);
         extractCharacteristics(coefficients);
         return generateOutput();
     }
 
-    private double[] fitEllipsoidToPoints(List<Point3f> points) {
-        RealMatrix designMatrix = new Array2DRowRealMatrix(points.size(), 9);
-        int j = 0;
-        for (Point3f point: points) {
-            double x = point.getX();
-            double y = point.getY();
-            double z = point.getZ();
-            designMatrix.setRow(j, new double[]{x*x, y*y, z*z, x*y, x*z, y*z, x, y, z});
-            j++;
-        }
-        
-        double[] ones = new double[points.size()];
-        for (int i = 0; i < points.size(); i++) {
-            ones[i] = 1.0;
+    private double[] fitEllipsoidToPoints(PointCloud points) {
+        // Les équations normales (A^T A et A^T 1) sont accumulées point par point, sans
+        // construire la matrice de conception
+        double[] normalMatrix = new double[9 * 9];
+        double[] rightHandSide = new double[9];
+        double[] row = new double[9];
+        for (int j = 0; j < points.size(); j++) {
+            double x = points.getX(j);
+            double y = points.getY(j);
+            double z = points.getZ(j);
+            row[0] = x*x; row[1] = y*y; row[2] = z*z;
+            row[3] = x*y; row[4] = x*z; row[5] = y*z;
+            row[6] = x; row[7] = y; row[8] = z;
+            for (int a = 0; a < 9; a++) {
+                rightHandSide[a] += row[a];
+                for (int b = 0; b < 9; b++) {
+                    normalMatrix[b * 9 + a] += row[a] * row[b];
+                }
+            }
         }
-        RealMatrix columnOfOnes = new Array2DRowRealMatrix(ones);
 
-        QRDecomposition qr = new QRDecomposition(designMatrix.transpose().multiply(designMatrix));
-        DecompositionSolver solver = qr.getSolver();
-        RealMatrix coefficients = solver.solve(designMatrix.transpose().multiply(columnOfOnes));
-        return MatrixUtils.createRealVector(coefficients.getColumn(0)).append(-1).toArray();
+        double[] coefficients = Arrays.copyOf(backend.qr(normalMatrix, 9, 9).solve(rightHandSide, 1), 10);
+        coefficients[9] = -1;
+        return coefficients;
     }
 
     private void extractCharacteristics(double[] coefficients) {
@@ -124,8 +128,8 @@ public class EllipsoidExpander {
     }
     
     
-    public static ArrayList<Point3f> generateEllipsoidPoints(double a, double b, double c, int n) {
-    	ArrayList<Point3f> points = new ArrayList<Point3f>();
+    public static PointCloud generateEllipsoidPoints(double a, double b, double c, int n) {
+    	PointCloud points = new PointCloud(n);
         Random rand = new Random();
         for (int i = 0; i < n; i++) {
             double theta = Math.PI * 2 * rand.nextDouble();
@@ -133,12 +137,15 @@ public class EllipsoidExpander {
             double x = a * Math.cos(theta) * Math.cos(phi);
             double y = b * Math.sin(theta) * Math.cos(phi);
             double z = c * Math.sin(phi);
-            points.add(new Point3f((float)x,(float)y,(float)z));
+            points.add((float)x,(float)y,(float)z);
         }
         return points;
     }
     
-    public double[][] cartesianToElliptical(List<Point3f> points, boolean invert) {
+    /**
+     * @return Les coordonnées elliptiques {U[], V[]} des points.
+     */
+    public double[][] cartesianToElliptical(PointCloud points, boolean invert) {
         double[] lengths = new double[axes.length];
         for (int i = 0; i < axes.length; i++) {
             lengths[i] = Math.sqrt(axes[i]);
@@ -151,27 +158,24 @@ public class EllipsoidExpander {
         
         int pointsSize = points.size();
 
-        RealMatrix R_inverse = new LUDecomposition(R).getSolver().getInverse();
-        double[][] U_coors_calc = new double[pointsSize][1];
-        double[][] V_coors_calc = new double[pointsSize][1];
+        double[][] R_inverse = new LUDecomposition(R).getSolver().getInverse().getData();
         
-        double[][] results = new double[points.size()][2];
+        double[][] results = new double[2][pointsSize];
         
-        int pt_numb = 0;
-        for (Point3f point: points) {
-            RealVector pointVector = MatrixUtils.createRealVector(new double[] {point.getX(), point.getY(), point.getY()});
-            RealVector centerVector = MatrixUtils.createRealVector(center);
-            RealVector y_tilde_pt = R_inverse.preMultiply(pointVector.subtract(centerVector));
+        for (int pt_numb = 0; pt_numb < pointsSize; pt_numb++) {
+            double px = points.getX(pt_numb) - center[0];
+            double py = points.getY(pt_numb) - center[1];
+            double pz = points.getZ(pt_numb) - center[2];
 
-            double yt_0 = y_tilde_pt.getEntry(0);
-            double yt_1 = y_tilde_pt.getEntry(1);
-            double yt_2 = y_tilde_pt.getEntry(2);
+            // y_tilde = (p - center) * R_inverse
+            double yt_0 = px * R_inverse[0][0] + py * R_inverse[1][0] + pz * R_inverse[2][0];
+            double yt_1 = px * R_inverse[0][1] + py * R_inverse[1][1] + pz * R_inverse[2][1];
+            double yt_2 = px * R_inverse[0][2] + py * R_inverse[1][2] + pz * R_inverse[2][2];
 
             double U_pt = Math.atan2(yt_1 * lengths[0], yt_0 * lengths[1]);
             if (U_pt < 0) {
                 U_pt += 2.0 * Math.PI;
             }
-            U_coors_calc[pt_numb][0] = U_pt;
 
             double cylinder_r = Math.sqrt(yt_0 * yt_0 + yt_1 * yt_1);
             double cyl_r_exp = Math.sqrt(
@@ -183,30 +187,33 @@ public class EllipsoidExpander {
             if (V_pt < 0) {
                 V_pt += 2.0 * Math.PI;
             }
-            V_coors_calc[pt_numb][0] = V_pt;
-            
-            results[pt_numb][0] = U_coors_calc[pt_numb][0]; // Assign U coordinates
-            results[pt_numb][1] = V_coors_calc[pt_numb][0]; // Assign V coordinates
             
-            pt_numb++;
+            results[0][pt_numb] = U_pt; // Assign U coordinates
+            results[1][pt_numb] = V_pt; // Assign V coordinates
         }
 
         return results;
     }
 
-    public List<Point3f> ellipticalToCartesian(List<Point3f> ellipticalCoordinates, boolean invert) {
+    /**
+     * Convertit des coordonnées elliptiques (u, v dans les colonnes x et y) en coordonnées
+     * cartésiennes, sur place.
+     *
+     * @param ellipticalCoordinates Les points, remplacés par leurs coordonnées cartésiennes.
+     * @param invert Vrai pour utiliser la transposée de la matrice des vecteurs propres.
+     * @return Le nuage passé, converti.
+     */
+    public PointCloud ellipticalToCartesian(PointCloud ellipticalCoordinates, boolean invert) {
         RealMatrix R = MatrixUtils.createRealMatrix(eigenvectors);
         if (invert) {
             R = R.transpose();
         }
 
-        RealMatrix R_inverse = new LUDecomposition(R).getSolver().getInverse();
+        double[][] R_inverse = new LUDecomposition(R).getSolver().getInverse().getData();
 
-        List<Point3f> cartesianPoints = new ArrayList<>();
-
-        for (Point3f ellipticalPoint : ellipticalCoordinates) {
-            double u = ellipticalPoint.x;
-            double v = ellipticalPoint.y;
+        for (int i = 0; i < ellipticalCoordinates.size(); i++) {
+            double u = ellipticalCoordinates.getX(i);
+            double v = ellipticalCoordinates.getY(i);
 
             double uLength = Math.cos(u) * Math.sqrt(axes[0]);
             double vLength = Math.sin(u) * Math.sqrt(axes[1]);
@@ -215,13 +222,14 @@ public class EllipsoidExpander {
             double y = uLength * Math.sin(v);
             double z = vLength;
 
-            RealVector cartesianVector = R_inverse.operate(new ArrayRealVector(new double[] {x, y, z}));
-            cartesianVector = cartesianVector.add(new ArrayRealVector(center));
-
-            cartesianPoints.add(new Point3f((float) cartesianVector.getEntry(0), (float) cartesianVector.getEntry(1), (float) cartesianVector.getEntry(2)));
+            // R_inverse * (x, y, z) + center
+            ellipticalCoordinates.set(i,
+                    (float) (R_inverse[0][0] * x + R_inverse[0][1] * y + R_inverse[0][2] * z + center[0]),
+                    (float) (R_inverse[1][0] * x + R_inverse[1][1] * y + R_inverse[1][2] * z + center[1]),
+                    (float) (R_inverse[2][0] * x + R_inverse[2][1] * y + R_inverse[2][2] * z + center[2]));
         }
 
-        return cartesianPoints;
+        return ellipticalCoordinates;
     }
     
 }
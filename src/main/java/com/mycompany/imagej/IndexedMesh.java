@@ -0,0 +1,133 @@
+package com.mycompany.imagej;
+
+import java.util.Arrays;
+
+/**
+ * Maillage triangulaire indexé : des sommets uniques, des triangles qui les référencent et
+ * l'adjacence des sommets au format CSR (compressed sparse row).
+ *
+ * Les voisins du sommet v sont {@code getAdjacency()[getAdjacencyOffsets()[v]]} à
+ * {@code getAdjacency()[getAdjacencyOffsets()[v + 1] - 1]}, triés et sans doublon : le lissage
+ * ou le calcul de courbure parcourent ainsi les voisins sans objet intermédiaire.
+ */
+public class IndexedMesh {
+
+    private final PointCloud vertices;
+    private final int[] triangles;
+    private final int[] adjacencyOffsets;
+    private final int[] adjacency;
+
+    /**
+     * Crée un maillage et construit l'adjacence de ses sommets.
+     *
+     * @param vertices Les sommets.
+     * @param triangles Les indices des sommets des triangles (3 par triangle).
+     */
+    public IndexedMesh(PointCloud vertices, int[] triangles) {
+        this.vertices = vertices;
+        this.triangles = triangles;
+
+        // Chaque triangle donne deux voisins à chacun de ses sommets
+        int numVertices = vertices.size();
+        int[] offsets = new int[numVertices + 1];
+        for (int t = 0; t < triangles.length; t++) {
+            offsets[triangles[t] + 1] += 2;
+        }
+        for (int v = 0; v < numVertices; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] neighbours = new int[offsets[numVertices]];
+        int[] fill = Arrays.copyOf(offsets, numVertices);
+        for (int t = 0; t < triangles.length; t += 3) {
+            for (int k = 0; k < 3; k++) {
+                int v = triangles[t + k];
+                neighbours[fill[v]++] = triangles[t + (k + 1) % 3];
+                neighbours[fill[v]++] = triangles[t + (k + 2) % 3];
+            }
+        }
+
+        // Tri et suppression des doublons (une arête est partagée par deux triangles), en place
+        int size = 0;
+        int start = 0;
+        for (int v = 0; v < numVertices; v++) {
+            int end = offsets[v + 1];
+            Arrays.sort(neighbours, start, end);
+            offsets[v] = size;
+            for (int i = start; i < end; i++) {
+                if (i == start || neighbours[i] != neighbours[i - 1]) {
+                    neighbours[size++] = neighbours[i];
+                }
+            }
+            start = end;
+        }
+        offsets[numVertices] = size;
+
+        this.adjacencyOffsets = offsets;
+        this.adjacency = Arrays.copyOf(neighbours, size);
+    }
+
+    private IndexedMesh(PointCloud vertices, int[] triangles, int[] adjacencyOffsets, int[] adjacency) {
+        this.vertices = vertices;
+        this.triangles = triangles;
+        this.adjacencyOffsets = adjacencyOffsets;
+        this.adjacency = adjacency;
+    }
+
+    /**
+     * Crée un maillage de même topologie avec d'autres positions des sommets (après un lissage) ;
+     * les triangles et l'adjacence sont partagés, pas reconstruits.
+     *
+     * @param vertices Les nouveaux sommets, dans le même ordre.
+     * @return Le nouveau maillage.
+     */
+    public IndexedMesh withVertices(PointCloud vertices) {
+        if (vertices.size() != getNumVertices()) {
+            throw new IllegalArgumentException("Nombre de sommets différent : " + vertices.size() + " au lieu de " + getNumVertices());
+        }
+        return new IndexedMesh(vertices, triangles, adjacencyOffsets, adjacency);
+    }
+
+    public PointCloud getVertices() {
+        return vertices;
+    }
+
+    public int getNumVertices() {
+        return vertices.size();
+    }
+
+    public int getNumTriangles() {
+        return triangles.length / 3;
+    }
+
+    /**
+     * @return Les indices des sommets des triangles (3 par triangle).
+     */
+    public int[] getTriangles() {
+        return triangles;
+    }
+
+    /**
+     * @return Les débuts des listes de voisins de chaque sommet, suivis du nombre total de voisins.
+     */
+    public int[] getAdjacencyOffsets() {
+        return adjacencyOffsets;
+    }
+
+    /**
+     * @return Les listes de voisins de tous les sommets, bout à bout.
+     */
+    public int[] getAdjacency() {
+        return adjacency;
+    }
+
+    public int getNeighbourCount(int vertex) {
+        return adjacencyOffsets[vertex + 1] - adjacencyOffsets[vertex];
+    }
+
+    /**
+     * @return La taille estimée (en octets) du maillage.
+     */
+    public long estimateMemory() {
+        return vertices.estimateMemory() + 4L * (triangles.length + adjacencyOffsets.length + adjacency.length);
+    }
+}
@@ -0,0 +1,228 @@
+package com.mycompany.imagej;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Arbre k-d équilibré sur des tableaux primitifs.
+ *
+ * L'arbre est implicite : les points sont permutés de sorte que chaque nœud couvre un intervalle
+ * [lo, hi) de la permutation, son point médian est en (lo + hi) / 2 et ses deux sous-arbres sont
+ * les deux moitiés. Seuls l'axe de coupe de chaque nœud et les coordonnées permutées sont
+ * stockés. La construction coupe selon le plus grand côté de la boîte du nœud et traite les
+ * sous-arbres en parallèle (fork-join).
+ */
+public class KdTree implements SpatialIndex {
+
+    /** La taille au-dessous de laquelle un nœud est une feuille parcourue exhaustivement. */
+    private static final int LEAF_SIZE = 8;
+    /** La taille au-dessous de laquelle un sous-arbre est construit sans parallélisme. */
+    private static final int SEQUENTIAL_SIZE = 1 << 14;
+
+    private final int[] permutation;
+    private final byte[] splitDimension;
+    private final float[][] coordinates;
+
+    /**
+     * Construit l'arbre d'un nuage de points ; le nuage n'est pas modifié.
+     *
+     * @param points Les points.
+     */
+    public KdTree(PointCloud points) {
+        int n = points.size();
+        permutation = new int[n];
+        for (int i = 0; i < n; i++) {
+            permutation[i] = i;
+        }
+        splitDimension = new byte[n];
+        float[][] source = {points.getX(), points.getY(), points.getZ()};
+
+        float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (int d = 0; d < 3; d++) {
+            for (int i = 0; i < n; i++) {
+                min[d] = Math.min(min[d], source[d][i]);
+                max[d] = Math.max(max[d], source[d][i]);
+            }
+        }
+        ForkJoinPool.commonPool().invoke(new Build(source, 0, n, min, max));
+
+        // Coordonnées dans l'ordre de l'arbre, pour des parcours contigus en mémoire
+        coordinates = new float[3][n];
+        for (int d = 0; d < 3; d++) {
+            for (int i = 0; i < n; i++) {
+                coordinates[d][i] = source[d][permutation[i]];
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return permutation.length;
+    }
+
+    @Override
+    public int nearestNeighbours(float x, float y, float z, int k, int[] indices, float[] squaredDistances) {
+        k = Math.min(k, size());
+        if (k <= 0) {
+            return 0;
+        }
+        int found = nearest(0, size(), x, y, z, k, indices, squaredDistances, 0);
+        NeighbourHeap.sort(indices, squaredDistances, found);
+        for (int i = 0; i < found; i++) {
+            indices[i] = permutation[indices[i]];
+        }
+        return found;
+    }
+
+    @Override
+    public int radiusSearch(float x, float y, float z, float radius, int[] indices) {
+        return within(0, size(), x, y, z, radius * radius, indices, 0);
+    }
+
+    private int nearest(int lo, int hi, float x, float y, float z, int k, int[] indices, float[] distances, int size) {
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i++) {
+                size = NeighbourHeap.offer(indices, distances, size, k, i, squaredDistance(i, x, y, z));
+            }
+            return size;
+        }
+        int mid = (lo + hi) >>> 1;
+        float diff = (splitDimension[mid] == 0 ? x : splitDimension[mid] == 1 ? y : z) - coordinates[splitDimension[mid]][mid];
+        size = NeighbourHeap.offer(indices, distances, size, k, mid, squaredDistance(mid, x, y, z));
+        if (diff < 0) {
+            size = nearest(lo, mid, x, y, z, k, indices, distances, size);
+            if (diff * diff < NeighbourHeap.worst(distances, size, k)) {
+                size = nearest(mid + 1, hi, x, y, z, k, indices, distances, size);
+            }
+        } else {
+            size = nearest(mid + 1, hi, x, y, z, k, indices, distances, size);
+            if (diff * diff < NeighbourHeap.worst(distances, size, k)) {
+                size = nearest(lo, mid, x, y, z, k, indices, distances, size);
+            }
+        }
+        return size;
+    }
+
+    private int within(int lo, int hi, float x, float y, float z, float squaredRadius, int[] indices, int count) {
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i++) {
+                if (squaredDistance(i, x, y, z) <= squaredRadius) {
+                    if (count < indices.length) {
+                        indices[count] = permutation[i];
+                    }
+                    count++;
+                }
+            }
+            return count;
+        }
+        int mid = (lo + hi) >>> 1;
+        float diff = (splitDimension[mid] == 0 ? x : splitDimension[mid] == 1 ? y : z) - coordinates[splitDimension[mid]][mid];
+        if (squaredDistance(mid, x, y, z) <= squaredRadius) {
+            if (count < indices.length) {
+                indices[count] = permutation[mid];
+            }
+            count++;
+        }
+        if (diff <= 0 || diff * diff <= squaredRadius) {
+            count = within(lo, mid, x, y, z, squaredRadius, indices, count);
+        }
+        if (diff >= 0 || diff * diff <= squaredRadius) {
+            count = within(mid + 1, hi, x, y, z, squaredRadius, indices, count);
+        }
+        return count;
+    }
+
+    private float squaredDistance(int i, float x, float y, float z) {
+        float dx = coordinates[0][i] - x;
+        float dy = coordinates[1][i] - y;
+        float dz = coordinates[2][i] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Construit le sous-arbre d'un intervalle : sélection du médian selon le plus grand côté de
+     * la boîte, puis construction des deux moitiés.
+     */
+    private class Build extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final float[][] source;
+        private final int lo;
+        private final int hi;
+        private final float[] min;
+        private final float[] max;
+
+        Build(float[][] source, int lo, int hi, float[] min, float[] max) {
+            this.source = source;
+            this.lo = lo;
+            this.hi = hi;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= LEAF_SIZE) {
+                return;
+            }
+            int dimension = 0;
+            for (int d = 1; d < 3; d++) {
+                if (max[d] - min[d] > max[dimension] - min[dimension]) {
+                    dimension = d;
+                }
+            }
+            int mid = (lo + hi) >>> 1;
+            select(source[dimension], lo, hi - 1, mid);
+            splitDimension[mid] = (byte) dimension;
+
+            float split = source[dimension][permutation[mid]];
+            float[] leftMax = max.clone();
+            float[] rightMin = min.clone();
+            leftMax[dimension] = split;
+            rightMin[dimension] = split;
+            Build left = new Build(source, lo, mid, min, leftMax);
+            Build right = new Build(source, mid + 1, hi, rightMin, max);
+            if (hi - lo <= SEQUENTIAL_SIZE) {
+                left.compute();
+                right.compute();
+            } else {
+                invokeAll(left, right);
+            }
+        }
+
+        /**
+         * Place en position k l'élément de rang k de [left, right] selon une coordonnée, les plus
+         * petits avant et les plus grands après (sélection rapide).
+         */
+        private void select(float[] values, int left, int right, int k) {
+            while (right > left) {
+                float pivot = values[permutation[(left + right) >>> 1]];
+                int i = left;
+                int j = right;
+                while (i <= j) {
+                    while (values[permutation[i]] < pivot) {
+                        i++;
+                    }
+                    while (values[permutation[j]] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        int swap = permutation[i];
+                        permutation[i] = permutation[j];
+                        permutation[j] = swap;
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j) {
+                    right = j;
+                } else if (k >= i) {
+                    left = i;
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+}
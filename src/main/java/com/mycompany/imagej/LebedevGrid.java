@@ -0,0 +1,231 @@
+package com.mycompany.imagej;
+
+import java.util.Arrays;
+
+/**
+ * Grille de quadrature de Lebedev sur la sphère unité : des nœuds invariants par les symétries
+ * de l'octaèdre et des poids qui intègrent exactement les polynômes jusqu'à un degré donné.
+ *
+ * Les nœuds sont générés à partir des orbites de l'octaèdre (tables de Lebedev et Laikov) ;
+ * les poids sont normalisés à une somme de 1, l'intégrale d'une fonction f sur la sphère est
+ * donc 4π Σ w f. Une grille est immuable et chaque ordre n'est construit qu'une fois.
+ */
+public class LebedevGrid {
+
+    /** Les nombres de nœuds disponibles. */
+    private static final int[] ORDERS = {6, 14, 26, 38, 50, 86, 110};
+    /** Le degré des polynômes intégrés exactement par chaque grille. */
+    private static final int[] PRECISIONS = {3, 5, 7, 9, 11, 15, 17};
+    private static final LebedevGrid[] GRIDS = new LebedevGrid[ORDERS.length];
+
+    private final int precision;
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private final double[] weights;
+    private int size;
+
+    private LebedevGrid(int order, int precision) {
+        this.precision = precision;
+        x = new double[order];
+        y = new double[order];
+        z = new double[order];
+        weights = new double[order];
+    }
+
+    /**
+     * @param order Le nombre de nœuds, parmi {@link #getOrders()}.
+     * @return La grille.
+     */
+    public static synchronized LebedevGrid get(int order) {
+        int i = Arrays.binarySearch(ORDERS, order);
+        if (i < 0) {
+            throw new IllegalArgumentException("Ordre de Lebedev non disponible : " + order + " (ordres : " + Arrays.toString(ORDERS) + ")");
+        }
+        if (GRIDS[i] == null) {
+            GRIDS[i] = generate(order, PRECISIONS[i]);
+        }
+        return GRIDS[i];
+    }
+
+    /**
+     * @return La plus petite grille qui intègre exactement les produits de deux harmoniques de
+     * degré au plus {@code degree}.
+     */
+    public static LebedevGrid forDegree(int degree) {
+        for (int i = 0; i < ORDERS.length; i++) {
+            if (PRECISIONS[i] >= 2 * degree) {
+                return get(ORDERS[i]);
+            }
+        }
+        throw new IllegalArgumentException("Degré trop élevé pour les grilles de Lebedev disponibles : " + degree);
+    }
+
+    public static int[] getOrders() {
+        return ORDERS.clone();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Le degré des polynômes intégrés exactement.
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return Le degré maximal des harmoniques sphériques dont les produits sont intégrés exactement.
+     */
+    public int getMaxDegree() {
+        return precision / 2;
+    }
+
+    public double getX(int i) {
+        return x[i];
+    }
+
+    public double getY(int i) {
+        return y[i];
+    }
+
+    public double getZ(int i) {
+        return z[i];
+    }
+
+    /**
+     * @return L'angle polaire du nœud i.
+     */
+    public double getTheta(int i) {
+        return Math.acos(Math.max(-1, Math.min(1, z[i])));
+    }
+
+    /**
+     * @return L'angle azimutal du nœud i, dans [0, 2π).
+     */
+    public double getPhi(int i) {
+        double phi = Math.atan2(y[i], x[i]);
+        return phi < 0 ? phi + 2 * Math.PI : phi;
+    }
+
+    public double getWeight(int i) {
+        return weights[i];
+    }
+
+    private static LebedevGrid generate(int order, int precision) {
+        LebedevGrid grid = new LebedevGrid(order, precision);
+        switch (order) {
+        case 6:
+            grid.a1(0.1666666666666667);
+            break;
+        case 14:
+            grid.a1(0.6666666666666667e-1);
+            grid.a3(0.7500000000000000e-1);
+            break;
+        case 26:
+            grid.a1(0.4761904761904762e-1);
+            grid.a2(0.3809523809523810e-1);
+            grid.a3(0.3214285714285714e-1);
+            break;
+        case 38:
+            grid.a1(0.9523809523809524e-2);
+            grid.a3(0.3214285714285714e-1);
+            grid.c(0.4597008433809831, 0.2857142857142857e-1);
+            break;
+        case 50:
+            grid.a1(0.1269841269841270e-1);
+            grid.a2(0.2257495590828924e-1);
+            grid.a3(0.2109375000000000e-1);
+            grid.b(0.3015113445777636, 0.2017333553791887e-1);
+            break;
+        case 86:
+            grid.a1(0.1154401154401154e-1);
+            grid.a3(0.1194390908585628e-1);
+            grid.b(0.3696028464541502, 0.1111055571060340e-1);
+            grid.b(0.6943540066026664, 0.1187650129453714e-1);
+            grid.c(0.3742430390903412, 0.1181230374690448e-1);
+            break;
+        default:
+            grid.a1(0.3828270494937162e-2);
+            grid.a3(0.9793737512487512e-2);
+            grid.b(0.1851156353447362, 0.8211737283191111e-2);
+            grid.b(0.6904210483822922, 0.9942814891178103e-2);
+            grid.b(0.3956894730559419, 0.9595471336070963e-2);
+            grid.c(0.4783690288121502, 0.9694996361663028e-2);
+            break;
+        }
+        return grid;
+    }
+
+    private void add(double px, double py, double pz, double weight) {
+        x[size] = px;
+        y[size] = py;
+        z[size] = pz;
+        weights[size] = weight;
+        size++;
+    }
+
+    /** Les 6 sommets de l'octaèdre, (±1, 0, 0) et permutations. */
+    private void a1(double weight) {
+        for (int s = -1; s <= 1; s += 2) {
+            add(s, 0, 0, weight);
+            add(0, s, 0, weight);
+            add(0, 0, s, weight);
+        }
+    }
+
+    /** Les 12 milieux des arêtes, (0, ±1/√2, ±1/√2) et permutations. */
+    private void a2(double weight) {
+        double a = Math.sqrt(0.5);
+        for (int s = -1; s <= 1; s += 2) {
+            for (int t = -1; t <= 1; t += 2) {
+                add(0, s * a, t * a, weight);
+                add(s * a, 0, t * a, weight);
+                add(s * a, t * a, 0, weight);
+            }
+        }
+    }
+
+    /** Les 8 centres des faces, (±1/√3, ±1/√3, ±1/√3). */
+    private void a3(double weight) {
+        double a = Math.sqrt(1 / 3.0);
+        for (int s = -1; s <= 1; s += 2) {
+            for (int t = -1; t <= 1; t += 2) {
+                for (int u = -1; u <= 1; u += 2) {
+                    add(s * a, t * a, u * a, weight);
+                }
+            }
+        }
+    }
+
+    /** Les 24 points (±l, ±l, ±m) et permutations, avec m = √(1 - 2l²). */
+    private void b(double l, double weight) {
+        double m = Math.sqrt(1 - 2 * l * l);
+        for (int s = -1; s <= 1; s += 2) {
+            for (int t = -1; t <= 1; t += 2) {
+                for (int u = -1; u <= 1; u += 2) {
+                    add(s * l, t * l, u * m, weight);
+                    add(s * l, t * m, u * l, weight);
+                    add(s * m, t * l, u * l, weight);
+                }
+            }
+        }
+    }
+
+    /** Les 24 points (±p, ±q, 0) et permutations, avec q = √(1 - p²). */
+    private void c(double p, double weight) {
+        double q = Math.sqrt(1 - p * p);
+        for (int s = -1; s <= 1; s += 2) {
+            for (int t = -1; t <= 1; t += 2) {
+                add(s * p, t * q, 0, weight);
+                add(s * q, t * p, 0, weight);
+                add(s * p, 0, t * q, weight);
+                add(s * q, 0, t * p, weight);
+                add(0, s * p, t * q, weight);
+                add(0, s * q, t * p, weight);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.mycompany.imagej;
+
+/**
+ * Factorisations denses utilisées par les ajustements aux moindres carrés (ellipsoïde,
+ * harmoniques sphériques).
+ *
+ * Les matrices sont des tableaux plats rangés par colonnes : l'élément (i, j) d'une matrice de
+ * {@code rows} lignes est {@code a[j * rows + i]}. Une factorisation est conservée pour résoudre
+ * plusieurs seconds membres ; elle peut être utilisée depuis plusieurs threads.
+ */
+public interface LinearAlgebraBackend {
+
+    /** Implémentation par commons-math (stockage par lignes, sur un seul thread). */
+    LinearAlgebraBackend COMMONS_MATH = new CommonsMathBackend();
+    /** Implémentation sur tableaux plats, par panneaux et en parallèle. */
+    LinearAlgebraBackend PARALLEL = new ParallelLinearAlgebra();
+
+    /**
+     * Une matrice factorisée.
+     */
+    interface Factorization {
+
+        /**
+         * Résout le système (au sens des moindres carrés pour une factorisation QR) pour
+         * plusieurs seconds membres.
+         *
+         * @param b Les seconds membres, rangés par colonnes ({@code rows} lignes) ; non modifiés.
+         * @param numRightHandSides Le nombre de seconds membres.
+         * @return Les solutions, rangées par colonnes ({@code columns} lignes).
+         */
+        double[] solve(double[] b, int numRightHandSides);
+    }
+
+    /**
+     * Factorise une matrice par QR, pour les moindres carrés.
+     *
+     * @param a La matrice, rangée par colonnes ; elle peut être modifiée (utilisée comme espace de
+     * travail).
+     * @param rows Le nombre de lignes, au moins égal au nombre de colonnes.
+     * @param columns Le nombre de colonnes.
+     * @return La factorisation.
+     */
+    Factorization qr(double[] a, int rows, int columns);
+
+    /**
+     * Factorise une matrice symétrique définie positive par Cholesky ; seul son triangle
+     * inférieur est lu.
+     *
+     * @param a La matrice, rangée par colonnes ; elle peut être modifiée (utilisée comme espace de
+     * travail).
+     * @param size Sa taille.
+     * @return La factorisation.
+     */
+    Factorization cholesky(double[] a, int size);
+}
@@ -0,0 +1,298 @@
+package com.mycompany.imagej;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Cette classe extrait l'isosurface d'une image en niveaux de gris par Marching Cubes.
+ *
+ * Contrairement à l'extraction sur un masque binaire, les sommets sont interpolés linéairement
+ * le long des arêtes des cubes : leur position est sub-voxel. L'intérieur de la surface est
+ * formé des voxels strictement au-dessus de l'isovaleur.
+ *
+ * La table des triangles est construite au chargement de la classe, en suivant le contour sur
+ * chaque face du cube ; sur une face ambiguë, les coins intérieurs sont toujours séparés. Cette
+ * règle ne dépend que des quatre coins de la face, si bien que deux cubes voisins découpent leur
+ * face commune de la même façon : la surface obtenue est fermée et orientée (normales vers
+ * l'extérieur).
+ */
+public class MarchingCubes {
+
+    /** Les deux coins de chaque arête ; le coin i est en (i & 1, (i >> 1) & 1, (i >> 2) & 1). */
+    static final int[][] EDGE_CORNERS = {
+        {0, 1}, {2, 3}, {4, 5}, {6, 7},
+        {0, 2}, {1, 3}, {4, 6}, {5, 7},
+        {0, 4}, {1, 5}, {2, 6}, {3, 7}
+    };
+
+    /** Pour chaque configuration des coins, les arêtes des sommets des triangles (3 par triangle). */
+    static final int[][] TRIANGLES = buildTriangleTable();
+
+    /**
+     * Extrait l'isosurface de toute l'image ; les tranches de plans z sont traitées en parallèle.
+     *
+     * @param image L'image (x, y, z).
+     * @param isovalue L'isovaleur.
+     * @return Les sommets des triangles (x, y, z consécutifs, 3 sommets par triangle), dans les
+     * coordonnées de l'image.
+     */
+    public static <T extends RealType<T>> float[] extract(RandomAccessibleInterval<T> image, double isovalue) {
+        long depth = image.dimension(2) - 1;
+        if (depth < 1 || image.dimension(0) < 2 || image.dimension(1) < 2) {
+            return new float[0];
+        }
+        int numSlabs = (int) Math.min(depth, Runtime.getRuntime().availableProcessors());
+        List<FloatList> slabs = new ArrayList<>();
+        for (int s = 0; s < numSlabs; s++) {
+            slabs.add(new FloatList());
+        }
+        IntStream.range(0, numSlabs).parallel().forEach(s -> {
+            long zMin = image.min(2) + depth * s / numSlabs;
+            long zMax = image.min(2) + depth * (s + 1) / numSlabs - 1;
+            if (zMax >= zMin) {
+                Interval cubes = Intervals.createMinMax(image.min(0), image.min(1), zMin,
+                        image.max(0) - 1, image.max(1) - 1, zMax);
+                polygonize(image, cubes, isovalue, slabs.get(s));
+            }
+        });
+        return FloatList.concatenate(slabs);
+    }
+
+    /**
+     * Polygonise un ensemble de cubes, plan z par plan z.
+     *
+     * @param image L'image, qui doit être définie jusqu'au coin opposé du dernier cube.
+     * @param cubes Les positions des coins minimaux des cubes.
+     * @param isovalue L'isovaleur.
+     * @param out Reçoit les sommets des triangles.
+     */
+    static <T extends RealType<T>> void polygonize(RandomAccessible<T> image, Interval cubes, double isovalue, FloatList out) {
+        int width = (int) cubes.dimension(0) + 1;
+        int height = (int) cubes.dimension(1) + 1;
+        float[] lower = new float[width * height];
+        float[] upper = new float[width * height];
+        readPlane(image, cubes.min(0), cubes.min(1), cubes.min(2), width, height, lower);
+        for (long z = cubes.min(2); z <= cubes.max(2); z++) {
+            readPlane(image, cubes.min(0), cubes.min(1), z + 1, width, height, upper);
+            polygonizeLayer(lower, upper, width, height, cubes.min(0), cubes.min(1), z, (float) isovalue, out);
+            float[] swap = lower;
+            lower = upper;
+            upper = swap;
+        }
+    }
+
+    /**
+     * Polygonise une couche de cubes comprise entre deux plans.
+     *
+     * @param lower Le plan z (x le plus rapide).
+     * @param upper Le plan z + 1.
+     * @param width La largeur des plans (nombre de cubes en x + 1).
+     * @param height La hauteur des plans (nombre de cubes en y + 1).
+     * @param x0 La position x du premier voxel des plans.
+     * @param y0 La position y du premier voxel des plans.
+     * @param z La position z du plan inférieur.
+     * @param isovalue L'isovaleur.
+     * @param out Reçoit les sommets des triangles.
+     */
+    static void polygonizeLayer(float[] lower, float[] upper, int width, int height, long x0, long y0, long z,
+            float isovalue, FloatList out) {
+        float[] values = new float[8];
+        for (int y = 0; y < height - 1; y++) {
+            for (int x = 0; x < width - 1; x++) {
+                int index = y * width + x;
+                values[0] = lower[index];
+                values[1] = lower[index + 1];
+                values[2] = lower[index + width];
+                values[3] = lower[index + width + 1];
+                values[4] = upper[index];
+                values[5] = upper[index + 1];
+                values[6] = upper[index + width];
+                values[7] = upper[index + width + 1];
+
+                int configuration = 0;
+                for (int c = 0; c < 8; c++) {
+                    if (values[c] > isovalue) {
+                        configuration |= 1 << c;
+                    }
+                }
+                for (int edge : TRIANGLES[configuration]) {
+                    int a = EDGE_CORNERS[edge][0];
+                    int b = EDGE_CORNERS[edge][1];
+                    // Toujours du coin a (coordonnées minimales) vers b : les cubes voisins
+                    // calculent exactement le même sommet
+                    float t = (isovalue - values[a]) / (values[b] - values[a]);
+                    out.add(x0 + x + (a & 1) + t * ((b & 1) - (a & 1)));
+                    out.add(y0 + y + ((a >> 1) & 1) + t * (((b >> 1) & 1) - ((a >> 1) & 1)));
+                    out.add(z + ((a >> 2) & 1) + t * (((b >> 2) & 1) - ((a >> 2) & 1)));
+                }
+            }
+        }
+    }
+
+    private static <T extends RealType<T>> void readPlane(RandomAccessible<T> image, long x, long y, long z,
+            int width, int height, float[] plane) {
+        Cursor<T> cursor = Views.flatIterable(Views.interval(image,
+                new long[] {x, y, z}, new long[] {x + width - 1, y + height - 1, z})).cursor();
+        for (int i = 0; i < plane.length; i++) {
+            plane[i] = cursor.next().getRealFloat();
+        }
+    }
+
+    /**
+     * Construit la table des triangles des 256 configurations.
+     *
+     * Sur chaque face, parcourue dans le sens direct vu de l'extérieur, le contour va de chaque
+     * arête de sortie (intérieur vers extérieur) à l'arête coupée précédente : l'intérieur est
+     * à gauche du segment et les coins intérieurs d'une face ambiguë sont séparés. Chaque arête
+     * coupée du cube est ainsi le départ d'un segment et l'arrivée d'un autre ; les segments
+     * sont enchaînés en boucles, triangulées en éventail.
+     */
+    private static int[][] buildTriangleTable() {
+        int[][] edgeIndex = new int[8][8];
+        for (int e = 0; e < EDGE_CORNERS.length; e++) {
+            edgeIndex[EDGE_CORNERS[e][0]][EDGE_CORNERS[e][1]] = e;
+            edgeIndex[EDGE_CORNERS[e][1]][EDGE_CORNERS[e][0]] = e;
+        }
+
+        // Coins de chaque face, dans le sens direct vu de l'extérieur
+        int[][] faces = new int[6][];
+        for (int axis = 0; axis < 3; axis++) {
+            int u = 1 << ((axis + 1) % 3);
+            int v = 1 << ((axis + 2) % 3);
+            int w = 1 << axis;
+            faces[2 * axis] = new int[] {0, v, u | v, u};
+            faces[2 * axis + 1] = new int[] {w, w | u, w | u | v, w | v};
+        }
+
+        int[][] table = new int[256][];
+        for (int configuration = 0; configuration < 256; configuration++) {
+            int[] next = new int[12];
+            Arrays.fill(next, -1);
+            for (int[] face : faces) {
+                for (int k = 0; k < 4; k++) {
+                    boolean inside = (configuration >> face[k] & 1) != 0;
+                    boolean nextInside = (configuration >> face[(k + 1) % 4] & 1) != 0;
+                    if (!inside || nextInside) {
+                        continue;
+                    }
+                    // Arête coupée précédente, en remontant le sens direct
+                    for (int j = 1; j < 4; j++) {
+                        int p = (k + 4 - j) % 4;
+                        boolean a = (configuration >> face[p] & 1) != 0;
+                        boolean b = (configuration >> face[(p + 1) % 4] & 1) != 0;
+                        if (a != b) {
+                            next[edgeIndex[face[k]][face[(k + 1) % 4]]] = edgeIndex[face[p]][face[(p + 1) % 4]];
+                            break;
+                        }
+                    }
+                }
+            }
+
+            List<Integer> triangles = new ArrayList<>();
+            boolean[] visited = new boolean[12];
+            for (int start = 0; start < 12; start++) {
+                if (next[start] < 0 || visited[start]) {
+                    continue;
+                }
+                List<Integer> loop = new ArrayList<>();
+                for (int e = start; !visited[e]; e = next[e]) {
+                    visited[e] = true;
+                    loop.add(e);
+                }
+                int apex = fanApex(loop, faces);
+                for (int i = 1; i + 1 < loop.size(); i++) {
+                    triangles.add(loop.get(apex));
+                    triangles.add(loop.get((apex + i + 1) % loop.size()));
+                    triangles.add(loop.get((apex + i) % loop.size()));
+                }
+            }
+            table[configuration] = triangles.stream().mapToInt(Integer::intValue).toArray();
+        }
+        return table;
+    }
+
+    /**
+     * Choisit le sommet d'où partent les diagonales de l'éventail : de préférence un sommet dont
+     * aucune diagonale ne relie deux arêtes d'une même face, pour que les diagonales de deux
+     * cubes voisins ne se superposent pas sur leur face commune.
+     */
+    private static int fanApex(List<Integer> loop, int[][] faces) {
+        int best = 0;
+        int bestShared = Integer.MAX_VALUE;
+        for (int apex = 0; apex < loop.size(); apex++) {
+            int shared = 0;
+            for (int i = 2; i + 1 < loop.size(); i++) {
+                if (shareFace(loop.get(apex), loop.get((apex + i) % loop.size()), faces)) {
+                    shared++;
+                }
+            }
+            if (shared < bestShared) {
+                best = apex;
+                bestShared = shared;
+            }
+        }
+        return best;
+    }
+
+    private static boolean shareFace(int edgeA, int edgeB, int[][] faces) {
+        for (int[] face : faces) {
+            int mask = (1 << face[0]) | (1 << face[1]) | (1 << face[2]) | (1 << face[3]);
+            int cornersA = (1 << EDGE_CORNERS[edgeA][0]) | (1 << EDGE_CORNERS[edgeA][1]);
+            int cornersB = (1 << EDGE_CORNERS[edgeB][0]) | (1 << EDGE_CORNERS[edgeB][1]);
+            if ((mask & cornersA) == cornersA && (mask & cornersB) == cornersB) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tableau de floats extensible, pour accumuler les sommets sans objets intermédiaires.
+     */
+    static class FloatList {
+        private float[] data = new float[1024];
+        private int size = 0;
+
+        void add(float value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        float[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+
+        /**
+         * Concatène plusieurs listes dans l'ordre.
+         */
+        static float[] concatenate(List<FloatList> lists) {
+            int total = 0;
+            for (FloatList list : lists) {
+                total += list.size;
+            }
+            float[] result = new float[total];
+            int offset = 0;
+            for (FloatList list : lists) {
+                System.arraycopy(list.data, 0, result, offset, list.size);
+                offset += list.size;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.mycompany.imagej;
+
+import java.util.Arrays;
+
+import net.imagej.mesh.Mesh;
+import net.imagej.mesh.Triangles;
+
+/**
+ * Cette classe soude les sommets dupliqués d'un maillage issu de Marching Cubes.
+ *
+ * Marching Cubes émet chaque sommet une fois par triangle qui le touche (environ six fois) :
+ * les sommets sont regroupés par leurs coordonnées quantifiées, dans une table de hachage à
+ * adressage ouvert sur des tableaux primitifs. Les triangles dégénérés par la soudure sont
+ * supprimés. Deux sommets dont les coordonnées arrondies au pas de quantification coïncident
+ * sont fusionnés ; les sommets calculés à l'identique par deux cubes voisins le sont toujours.
+ */
+public class MeshWelder {
+
+    /** Le pas de quantification par défaut, en voxels. */
+    public static final float DEFAULT_TOLERANCE = 1e-3f;
+
+    /**
+     * Soude un maillage de la librairie ops.
+     *
+     * @param mesh Le maillage.
+     * @param tolerance Le pas de quantification des coordonnées.
+     * @return Le maillage indexé.
+     */
+    public static IndexedMesh weld(Mesh mesh, float tolerance) {
+        Triangles triangles = mesh.triangles();
+        int[] indices = new int[3 * (int) triangles.size()];
+        for (int t = 0; t < triangles.size(); t++) {
+            indices[3 * t] = (int) triangles.vertex0(t);
+            indices[3 * t + 1] = (int) triangles.vertex1(t);
+            indices[3 * t + 2] = (int) triangles.vertex2(t);
+        }
+        return weld(PointCloud.fromVertices(mesh.vertices()), indices, tolerance);
+    }
+
+    /**
+     * Soude une soupe de triangles.
+     *
+     * @param coordinates Les sommets des triangles (x, y, z consécutifs, 3 sommets par triangle).
+     * @param tolerance Le pas de quantification des coordonnées.
+     * @return Le maillage indexé.
+     */
+    public static IndexedMesh weld(float[] coordinates, float tolerance) {
+        int numVertices = coordinates.length / 3;
+        PointCloud vertices = new PointCloud(numVertices);
+        int[] indices = new int[numVertices];
+        for (int i = 0; i < numVertices; i++) {
+            vertices.add(coordinates[3 * i], coordinates[3 * i + 1], coordinates[3 * i + 2]);
+            indices[i] = i;
+        }
+        return weld(vertices, indices, tolerance);
+    }
+
+    /**
+     * Soude les sommets d'un maillage indexé.
+     *
+     * @param vertices Les sommets, éventuellement dupliqués.
+     * @param triangles Les indices des sommets des triangles (3 par triangle).
+     * @param tolerance Le pas de quantification des coordonnées.
+     * @return Le maillage indexé, dont les sommets sont uniques.
+     */
+    public static IndexedMesh weld(PointCloud vertices, int[] triangles, float tolerance) {
+        int numVertices = vertices.size();
+        float scale = 1 / tolerance;
+
+        // Table de hachage : capacité (puissance de 2) au moins double du nombre de sommets
+        int capacity = Integer.highestOneBit(Math.max(1, 2 * numVertices - 1)) << 1;
+        int mask = capacity - 1;
+        int[] keys = new int[3 * capacity];
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, -1);
+
+        PointCloud unique = new PointCloud(numVertices / 4 + 16);
+        int[] remap = new int[numVertices];
+        float[] x = vertices.getX();
+        float[] y = vertices.getY();
+        float[] z = vertices.getZ();
+        for (int i = 0; i < numVertices; i++) {
+            int qx = Math.round(x[i] * scale);
+            int qy = Math.round(y[i] * scale);
+            int qz = Math.round(z[i] * scale);
+            int slot = hash(qx, qy, qz) & mask;
+            while (slots[slot] >= 0
+                    && (keys[3 * slot] != qx || keys[3 * slot + 1] != qy || keys[3 * slot + 2] != qz)) {
+                slot = (slot + 1) & mask;
+            }
+            if (slots[slot] < 0) {
+                slots[slot] = unique.size();
+                keys[3 * slot] = qx;
+                keys[3 * slot + 1] = qy;
+                keys[3 * slot + 2] = qz;
+                unique.add(x[i], y[i], z[i]);
+            }
+            remap[i] = slots[slot];
+        }
+
+        // Réindexation des triangles, sans les triangles dégénérés
+        int[] welded = new int[triangles.length];
+        int size = 0;
+        for (int t = 0; t < triangles.length; t += 3) {
+            int a = remap[triangles[t]];
+            int b = remap[triangles[t + 1]];
+            int c = remap[triangles[t + 2]];
+            if (a != b && b != c && a != c) {
+                welded[size++] = a;
+                welded[size++] = b;
+                welded[size++] = c;
+            }
+        }
+        return new IndexedMesh(unique, Arrays.copyOf(welded, size));
+    }
+
+    private static int hash(int qx, int qy, int qz) {
+        int h = qx * 73856093 ^ qy * 19349663 ^ qz * 83492791;
+        return h ^ (h >>> 16);
+    }
+}
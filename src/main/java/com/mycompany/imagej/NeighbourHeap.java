@@ -0,0 +1,81 @@
+package com.mycompany.imagej;
+
+/**
+ * Tas binaire (maximum en tête) des k meilleurs voisins, stocké dans les tableaux de résultats
+ * fournis par l'appelant d'une recherche des plus proches voisins.
+ */
+final class NeighbourHeap {
+
+    private NeighbourHeap() {
+    }
+
+    /**
+     * Propose un point au tas.
+     *
+     * @param size La taille du tas.
+     * @param k La taille maximale du tas.
+     * @return La nouvelle taille du tas.
+     */
+    static int offer(int[] indices, float[] distances, int size, int k, int index, float distance) {
+        if (size < k) {
+            // Insertion en bas, puis remontée
+            int i = size;
+            while (i > 0) {
+                int parent = (i - 1) >> 1;
+                if (distances[parent] >= distance) {
+                    break;
+                }
+                indices[i] = indices[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            indices[i] = index;
+            distances[i] = distance;
+            return size + 1;
+        }
+        if (distance < distances[0]) {
+            siftDown(indices, distances, 0, size, index, distance);
+        }
+        return size;
+    }
+
+    /**
+     * @return La plus grande distance du tas, ou l'infini tant qu'il n'est pas plein.
+     */
+    static float worst(float[] distances, int size, int k) {
+        return size < k ? Float.POSITIVE_INFINITY : distances[0];
+    }
+
+    /**
+     * Trie le tas par distance croissante (tri par tas, en place).
+     */
+    static void sort(int[] indices, float[] distances, int size) {
+        for (int end = size - 1; end > 0; end--) {
+            int index = indices[end];
+            float distance = distances[end];
+            indices[end] = indices[0];
+            distances[end] = distances[0];
+            siftDown(indices, distances, 0, end, index, distance);
+        }
+    }
+
+    private static void siftDown(int[] indices, float[] distances, int i, int size, int index, float distance) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && distances[child + 1] > distances[child]) {
+                child++;
+            }
+            if (distances[child] <= distance) {
+                break;
+            }
+            indices[i] = indices[child];
+            distances[i] = distances[child];
+            i = child;
+        }
+        indices[i] = index;
+        distances[i] = distance;
+    }
+}
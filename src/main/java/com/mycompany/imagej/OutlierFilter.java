@@ -0,0 +1,216 @@
+package com.mycompany.imagej;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Cette classe supprime les points aberrants (débris, gouttelettes voisines) avant l'ajustement
+ * de l'ellipsoïde et des harmoniques sphériques.
+ *
+ * Une statistique est calculée pour chaque point en une passe parallèle, puis les points trop
+ * éloignés de la médiane (en multiples de l'écart absolu médian, ramené à un écart-type) sont
+ * écartés :
+ * <ul>
+ * <li>{@link Mode#KNN_DISTANCE} : la distance moyenne aux k plus proches voisins, en une passe ;</li>
+ * <li>{@link Mode#ELLIPSOID_RESIDUAL} : l'écart radial à un ellipsoïde ajusté sur les points
+ * retenus ; l'ellipsoïde est réajusté et les écarts recalculés pour tous les points jusqu'à ce
+ * que l'ensemble des points retenus ne change plus.</li>
+ * </ul>
+ */
+public class OutlierFilter {
+
+    /**
+     * La statistique utilisée pour détecter les points aberrants.
+     */
+    public enum Mode {
+        /** Aucun rejet. */
+        NONE,
+        /** La distance moyenne aux plus proches voisins : rejette les points isolés. */
+        KNN_DISTANCE,
+        /** L'écart radial à l'ellipsoïde ajusté : rejette les points hors de la surface. */
+        ELLIPSOID_RESIDUAL
+    }
+
+    /** Le nombre de voisins du mode {@link Mode#KNN_DISTANCE}. */
+    private static final int NEIGHBOURS = 8;
+    /** Le nombre maximal d'ajustements du mode {@link Mode#ELLIPSOID_RESIDUAL}. */
+    private static final int MAX_ITERATIONS = 10;
+    /** Le rapport entre l'écart-type et l'écart absolu médian d'une loi normale. */
+    private static final double MAD_TO_SIGMA = 1.4826;
+
+    private static final ThreadLocal<int[]> INDICES = ThreadLocal.withInitial(() -> new int[NEIGHBOURS + 1]);
+    private static final ThreadLocal<float[]> DISTANCES = ThreadLocal.withInitial(() -> new float[NEIGHBOURS + 1]);
+
+    /**
+     * Supprime les points aberrants.
+     *
+     * @param points Les points.
+     * @param mode La statistique utilisée.
+     * @param threshold L'écart maximal à la médiane, en écarts-types robustes.
+     * @param minPoints Le nombre minimal de points à retenir, celui des inconnues de l'ajustement
+     * suivant : si le rejet en laisse moins, le dernier ensemble stable est renvoyé (le nuage passé
+     * pour le premier).
+     * @param backend Les factorisations des ajustements de l'ellipsoïde.
+     * @return Les points retenus, dans l'ordre (le nuage passé si aucun n'est rejeté).
+     */
+    public static PointCloud filter(PointCloud points, Mode mode, double threshold, int minPoints, LinearAlgebraBackend backend) {
+        int n = points.size();
+        minPoints = Math.max(minPoints, NEIGHBOURS + 2);
+        if (mode == Mode.NONE || n < minPoints) {
+            return points;
+        }
+        float[] statistics = new float[n];
+        boolean[] inliers = new boolean[n];
+        if (mode == Mode.KNN_DISTANCE) {
+            knnDistances(points, statistics);
+            if (select(statistics, threshold, inliers) < minPoints) {
+                return points;
+            }
+        } else {
+            // Premier ajustement sur tous les points, puis réajustements sur les points retenus
+            PointCloud retained = points;
+            boolean[] previous = null;
+            for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+                EllipsoidExpander ellipsoid = new EllipsoidExpander();
+                ellipsoid.setBackend(backend);
+                ellipsoid.fit(retained);
+                radialResiduals(points, ellipsoid, statistics);
+                int count = select(statistics, threshold, inliers);
+                if (count < minPoints) {
+                    // Trop peu de points : les points du dernier ajustement
+                    if (previous == null) {
+                        return points;
+                    }
+                    System.arraycopy(previous, 0, inliers, 0, n);
+                    break;
+                }
+                if (Arrays.equals(inliers, previous)) {
+                    break;
+                }
+                previous = inliers.clone();
+                retained = subset(points, inliers, count);
+            }
+        }
+        int count = 0;
+        for (boolean inlier : inliers) {
+            if (inlier) {
+                count++;
+            }
+        }
+        return count == n ? points : subset(points, inliers, count);
+    }
+
+    /**
+     * Distance moyenne de chaque point à ses plus proches voisins (lui-même exclu).
+     */
+    private static void knnDistances(PointCloud points, float[] distances) {
+        KdTree tree = new KdTree(points);
+        IntStream.range(0, points.size()).parallel().forEach(i -> {
+            int[] indices = INDICES.get();
+            float[] squaredDistances = DISTANCES.get();
+            int found = tree.nearestNeighbours(points.getX(i), points.getY(i), points.getZ(i), NEIGHBOURS + 1, indices, squaredDistances);
+            double sum = 0;
+            for (int k = 1; k < found; k++) {
+                sum += Math.sqrt(squaredDistances[k]);
+            }
+            distances[i] = (float) (sum / (found - 1));
+        });
+    }
+
+    /**
+     * Écart radial signé de chaque point à l'ellipsoïde : la distance entre le point et
+     * l'intersection de l'ellipsoïde avec la demi-droite issue de son centre.
+     */
+    private static void radialResiduals(PointCloud points, EllipsoidExpander ellipsoid, float[] residuals) {
+        double[] center = ellipsoid.getCenter();
+        double[] axes = ellipsoid.getAxes();
+        double[][] v = ellipsoid.getEigenvectors();
+        IntStream.range(0, points.size()).parallel().forEach(i -> {
+            double dx = points.getX(i) - center[0];
+            double dy = points.getY(i) - center[1];
+            double dz = points.getZ(i) - center[2];
+            // Coordonnées dans le repère des axes, normalisées par leurs longueurs
+            double u0 = (dx * v[0][0] + dy * v[1][0] + dz * v[2][0]) / axes[0];
+            double u1 = (dx * v[0][1] + dy * v[1][1] + dz * v[2][1]) / axes[1];
+            double u2 = (dx * v[0][2] + dy * v[1][2] + dz * v[2][2]) / axes[2];
+            double scaledRadius = Math.sqrt(u0 * u0 + u1 * u1 + u2 * u2);
+            double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            residuals[i] = scaledRadius == 0 ? (float) -distance : (float) (distance * (1 - 1 / scaledRadius));
+        });
+    }
+
+    /**
+     * Retient les points dont la statistique est à moins de {@code threshold} écarts-types
+     * robustes de la médiane.
+     *
+     * @return Le nombre de points retenus.
+     */
+    private static int select(float[] statistics, double threshold, boolean[] inliers) {
+        int n = statistics.length;
+        float[] work = statistics.clone();
+        double median = median(work, n);
+        for (int i = 0; i < n; i++) {
+            work[i] = Math.abs(statistics[i] - (float) median);
+        }
+        double sigma = MAD_TO_SIGMA * median(work, n);
+        if (sigma == 0) {
+            Arrays.fill(inliers, true);
+            return n;
+        }
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            inliers[i] = Math.abs(statistics[i] - median) <= threshold * sigma;
+            if (inliers[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Médiane par sélection rapide, en temps linéaire ; le tableau est réordonné.
+     */
+    private static double median(float[] values, int n) {
+        int k = n / 2;
+        int left = 0;
+        int right = n - 1;
+        while (right > left) {
+            float pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    float swap = values[i];
+                    values[i] = values[j];
+                    values[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+
+    private static PointCloud subset(PointCloud points, boolean[] inliers, int count) {
+        PointCloud retained = new PointCloud(count);
+        for (int i = 0; i < points.size(); i++) {
+            if (inliers[i]) {
+                retained.add(points.getX(i), points.getY(i), points.getZ(i));
+            }
+        }
+        return retained;
+    }
+}
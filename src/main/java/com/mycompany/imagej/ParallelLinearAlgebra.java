@@ -0,0 +1,173 @@
+package com.mycompany.imagej;
+
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.linear.NonPositiveDefiniteMatrixException;
+import org.apache.commons.math3.linear.SingularMatrixException;
+
+/**
+ * Factorisations QR (Householder) et de Cholesky sur des tableaux plats rangés par colonnes.
+ *
+ * Chaque colonne est contiguë en mémoire, de sorte que l'application d'un réflecteur ou la mise
+ * à jour d'une colonne est un parcours linéaire. La QR traite les colonnes par panneaux : les
+ * réflecteurs d'un panneau sont calculés, puis appliqués ensemble à chacune des colonnes
+ * suivantes, réparties entre les cœurs (chaque colonne n'est lue qu'une fois par panneau). La
+ * Cholesky (à droite) répartit de même la mise à jour des colonnes restantes.
+ */
+public class ParallelLinearAlgebra implements LinearAlgebraBackend {
+
+    /** Le nombre de réflecteurs d'un panneau de la QR. */
+    private static final int PANEL_SIZE = 32;
+    /** Le nombre d'éléments mis à jour au-dessous duquel une étape reste sur un seul thread. */
+    private static final long PARALLEL_WORK = 1 << 16;
+
+    @Override
+    public Factorization qr(double[] a, int rows, int columns) {
+        if (rows < columns) {
+            throw new IllegalArgumentException("Moins de lignes que de colonnes : " + rows + " < " + columns);
+        }
+        double[] tau = new double[columns];
+        for (int panel = 0; panel < columns; panel += PANEL_SIZE) {
+            int panelEnd = Math.min(panel + PANEL_SIZE, columns);
+            for (int k = panel; k < panelEnd; k++) {
+                tau[k] = householder(a, rows, k);
+                for (int j = k + 1; j < panelEnd; j++) {
+                    reflect(a, rows, k, tau[k], a, j * rows);
+                }
+            }
+            int start = panel;
+            range(panelEnd, columns, (long) (rows - panel) * (columns - panelEnd)).forEach(j -> {
+                for (int k = start; k < panelEnd; k++) {
+                    reflect(a, rows, k, tau[k], a, j * rows);
+                }
+            });
+        }
+        return (b, numRightHandSides) -> {
+            double[] solution = new double[columns * numRightHandSides];
+            range(0, numRightHandSides, (long) rows * columns * numRightHandSides).forEach(c -> {
+                // Qᵀb, puis résolution de R x = (Qᵀb)[0, columns)
+                double[] y = new double[rows];
+                System.arraycopy(b, c * rows, y, 0, rows);
+                for (int k = 0; k < columns; k++) {
+                    reflect(a, rows, k, tau[k], y, 0);
+                }
+                int offset = c * columns;
+                for (int i = columns - 1; i >= 0; i--) {
+                    double diagonal = a[i * rows + i];
+                    if (diagonal == 0) {
+                        throw new SingularMatrixException();
+                    }
+                    double sum = y[i];
+                    for (int j = i + 1; j < columns; j++) {
+                        sum -= a[j * rows + i] * solution[offset + j];
+                    }
+                    solution[offset + i] = sum / diagonal;
+                }
+            });
+            return solution;
+        };
+    }
+
+    /**
+     * Calcule le réflecteur qui annule la colonne k sous la diagonale : v (de premier élément 1
+     * implicite) est écrit sous la diagonale et la diagonale reçoit l'élément de R.
+     *
+     * @return Le facteur tau du réflecteur I - tau v vᵀ (0 si la colonne est déjà nulle sous la
+     * diagonale).
+     */
+    private static double householder(double[] a, int rows, int k) {
+        int column = k * rows;
+        double below = 0;
+        for (int i = k + 1; i < rows; i++) {
+            below += a[column + i] * a[column + i];
+        }
+        if (below == 0) {
+            return 0;
+        }
+        double alpha = a[column + k];
+        double norm = Math.sqrt(alpha * alpha + below);
+        double beta = alpha > 0 ? -norm : norm;
+        double scale = 1 / (alpha - beta);
+        for (int i = k + 1; i < rows; i++) {
+            a[column + i] *= scale;
+        }
+        a[column + k] = beta;
+        return (beta - alpha) / beta;
+    }
+
+    /**
+     * Applique le réflecteur k à une colonne (de {@code rows} éléments, à partir de {@code offset}).
+     */
+    private static void reflect(double[] a, int rows, int k, double tau, double[] target, int offset) {
+        if (tau == 0) {
+            return;
+        }
+        int column = k * rows;
+        double sum = target[offset + k];
+        for (int i = k + 1; i < rows; i++) {
+            sum += a[column + i] * target[offset + i];
+        }
+        sum *= tau;
+        target[offset + k] -= sum;
+        for (int i = k + 1; i < rows; i++) {
+            target[offset + i] -= sum * a[column + i];
+        }
+    }
+
+    @Override
+    public Factorization cholesky(double[] a, int size) {
+        for (int k = 0; k < size; k++) {
+            int column = k * size;
+            double diagonal = a[column + k];
+            if (!(diagonal > 0)) {
+                throw new NonPositiveDefiniteMatrixException(diagonal, k, 0);
+            }
+            diagonal = Math.sqrt(diagonal);
+            a[column + k] = diagonal;
+            for (int i = k + 1; i < size; i++) {
+                a[column + i] /= diagonal;
+            }
+            // Mise à jour du triangle inférieur des colonnes suivantes
+            range(k + 1, size, (long) (size - k) * (size - k) / 2).forEach(j -> {
+                double factor = a[column + j];
+                int target = j * size;
+                for (int i = j; i < size; i++) {
+                    a[target + i] -= a[column + i] * factor;
+                }
+            });
+        }
+        return (b, numRightHandSides) -> {
+            double[] solution = new double[size * numRightHandSides];
+            range(0, numRightHandSides, (long) size * size * numRightHandSides).forEach(c -> {
+                int offset = c * size;
+                System.arraycopy(b, offset, solution, offset, size);
+                // L y = b, puis Lᵀ x = y
+                for (int j = 0; j < size; j++) {
+                    int column = j * size;
+                    double y = solution[offset + j] / a[column + j];
+                    solution[offset + j] = y;
+                    for (int i = j + 1; i < size; i++) {
+                        solution[offset + i] -= a[column + i] * y;
+                    }
+                }
+                for (int j = size - 1; j >= 0; j--) {
+                    int column = j * size;
+                    double sum = solution[offset + j];
+                    for (int i = j + 1; i < size; i++) {
+                        sum -= a[column + i] * solution[offset + i];
+                    }
+                    solution[offset + j] = sum / a[column + j];
+                }
+            });
+            return solution;
+        };
+    }
+
+    /**
+     * Les colonnes [from, to) d'une étape, en parallèle si elle est assez grosse.
+     */
+    private static IntStream range(int from, int to, long work) {
+        IntStream range = IntStream.range(from, to);
+        return work >= PARALLEL_WORK && to - from > 1 ? range.parallel() : range;
+    }
+}
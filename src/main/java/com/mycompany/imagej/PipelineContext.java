@@ -0,0 +1,544 @@
+package com.mycompany.imagej;
+
+import ij.ImagePlus;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.logic.BitType;
+
+/**
+ * Contexte d'une exécution de la chaîne de traitement : paramètres, calibration de l'image,
+ * résultats intermédiaires et suivi de la progression.
+ *
+ * Chaque gouttelette traitée possède son propre contexte, ce qui permet d'en traiter
+ * plusieurs en même temps dans la même JVM.
+ */
+public class PipelineContext {
+
+    /**
+     * Reçoit l'avancement (en pourcentage) de la chaîne de traitement.
+     */
+    public interface ProgressListener {
+        void progressChanged(int value);
+    }
+
+    //---parameters---//
+    private final double smoothingSigma;
+    private final double resamplingLength;
+    private final int maxDegree;
+    private DropletPipeline.SmoothingMode smoothingMode = DropletPipeline.SmoothingMode.UPSAMPLED_ISOTROPIC;
+    private DropletPipeline.SurfaceDetection surfaceDetection = DropletPipeline.SurfaceDetection.INTENSITY;
+    private DropletPipeline.SurfaceExtraction surfaceExtraction = DropletPipeline.SurfaceExtraction.BINARY_MASK;
+    private ProcessImage.Interpolation interpolation = ProcessImage.Interpolation.NEAREST;
+    private boolean materializeRescaled = true;
+    private boolean cropToDroplet = false;
+    private long cropMargin = 10;
+    private long minDropletSize = 1000;
+    private long cellCacheMemory = 0;
+    private int meshSmoothingIterations = 0;
+    private int refinementIterations = 0;
+    private double traceLength = 12;
+    private double samplingDistance = 0.1;
+    private double outlierTolerance = 0.5;
+    private OutlierFilter.Mode outlierRejection = OutlierFilter.Mode.NONE;
+    private double rejectionThreshold = 3;
+    private SphericalHarmonicsExpansion.FitMethod fitMethod = SphericalHarmonicsExpansion.FitMethod.QR;
+    private double regularization = 0;
+    private int lebedevOrder = 0;
+    private LinearAlgebraBackend linearAlgebra = LinearAlgebraBackend.COMMONS_MATH;
+    //---calibration---//
+    private double[] voxelSize;
+    private double targetVoxelSize;
+    private double[] scalingFactor;
+    //---intermediate results---//
+    private ImagePlus sourceImage;
+    private long[] cropOffset;
+    private IterableInterval<BitType> binarizedImage;
+    private RandomAccessibleInterval<?> surfaceImage;
+    private double isovalue;
+    private IndexedMesh mesh;
+    private PointCloud meshPoints;
+    private IndexedMesh smoothedMesh;
+    private PointCloud resampledPoints;
+    private PointCloud refinedPoints;
+    private PointCloud filteredPoints;
+    private EllipsoidExpander ellipsoid;
+    private SphericalHarmonicsExpansion sphericalHarmonics;
+    private PointCloud fittedPoints;
+    //---progress---//
+    private ProgressListener progressListener;
+
+    /**
+     * @param smoothingSigma Le sigma du flou gaussien (en voxels cibles, ou en microns en mode
+     * {@link DropletPipeline.SmoothingMode#NATIVE_ANISOTROPIC}).
+     * @param resamplingLength La distance entre les points rééchantillonnés.
+     * @param maxDegree Le degré maximal des harmoniques sphériques.
+     */
+    public PipelineContext(double smoothingSigma, double resamplingLength, int maxDegree) {
+        this.smoothingSigma = smoothingSigma;
+        this.resamplingLength = resamplingLength;
+        this.maxDegree = maxDegree;
+    }
+
+    public double getSmoothingSigma() {
+        return smoothingSigma;
+    }
+
+    public double getResamplingLength() {
+        return resamplingLength;
+    }
+
+    public int getMaxDegree() {
+        return maxDegree;
+    }
+
+    public DropletPipeline.SmoothingMode getSmoothingMode() {
+        return smoothingMode;
+    }
+
+    /**
+     * @param smoothingMode Le mode de lissage de l'image avant la binarisation.
+     */
+    public void setSmoothingMode(DropletPipeline.SmoothingMode smoothingMode) {
+        this.smoothingMode = smoothingMode;
+    }
+
+    public DropletPipeline.SurfaceDetection getSurfaceDetection() {
+        return surfaceDetection;
+    }
+
+    /**
+     * @param surfaceDetection L'image seuillée pour détecter la surface : l'intensité ou les contours.
+     */
+    public void setSurfaceDetection(DropletPipeline.SurfaceDetection surfaceDetection) {
+        this.surfaceDetection = surfaceDetection;
+    }
+
+    public DropletPipeline.SurfaceExtraction getSurfaceExtraction() {
+        return surfaceExtraction;
+    }
+
+    /**
+     * @param surfaceExtraction La méthode d'extraction de la surface : sur le masque binarisé,
+     * ou directement sur l'image floutée à l'isovaleur d'Otsu.
+     */
+    public void setSurfaceExtraction(DropletPipeline.SurfaceExtraction surfaceExtraction) {
+        this.surfaceExtraction = surfaceExtraction;
+    }
+
+    public ProcessImage.Interpolation getInterpolation() {
+        return interpolation;
+    }
+
+    /**
+     * @param interpolation La méthode d'interpolation du redimensionnement.
+     */
+    public void setInterpolation(ProcessImage.Interpolation interpolation) {
+        this.interpolation = interpolation;
+    }
+
+    public boolean isMaterializeRescaled() {
+        return materializeRescaled;
+    }
+
+    /**
+     * @param materializeRescaled Vrai pour calculer l'image redimensionnée une seule fois,
+     * faux pour la garder sous forme de vue paresseuse.
+     */
+    public void setMaterializeRescaled(boolean materializeRescaled) {
+        this.materializeRescaled = materializeRescaled;
+    }
+
+    public boolean isCropToDroplet() {
+        return cropToDroplet;
+    }
+
+    /**
+     * @param cropToDroplet Vrai pour limiter le traitement à la boîte englobante de la gouttelette.
+     */
+    public void setCropToDroplet(boolean cropToDroplet) {
+        this.cropToDroplet = cropToDroplet;
+    }
+
+    public long getCropMargin() {
+        return cropMargin;
+    }
+
+    /**
+     * @param cropMargin La marge autour de la gouttelette, en voxels de l'image d'origine.
+     */
+    public void setCropMargin(long cropMargin) {
+        this.cropMargin = cropMargin;
+    }
+
+    public long getMinDropletSize() {
+        return minDropletSize;
+    }
+
+    /**
+     * @param minDropletSize La taille minimale (en voxels de l'image binarisée) d'une composante
+     * pour qu'elle soit traitée comme une gouttelette en mode multi-gouttelettes.
+     */
+    public void setMinDropletSize(long minDropletSize) {
+        this.minDropletSize = minDropletSize;
+    }
+
+    public long getCellCacheMemory() {
+        return cellCacheMemory;
+    }
+
+    /**
+     * @param cellCacheMemory La mémoire (en octets) allouée aux cellules de la pile, de l'image
+     * floutée et de la norme du gradient, partagée entre elles ; elles sont alors chargées et
+     * calculées par blocs. 0 pour tout garder en mémoire.
+     */
+    public void setCellCacheMemory(long cellCacheMemory) {
+        this.cellCacheMemory = cellCacheMemory;
+    }
+
+    public int getMeshSmoothingIterations() {
+        return meshSmoothingIterations;
+    }
+
+    /**
+     * @param meshSmoothingIterations Le nombre d'itérations du lissage de Taubin du maillage avant
+     * le rééchantillonnage (0 : pas de lissage).
+     */
+    public void setMeshSmoothingIterations(int meshSmoothingIterations) {
+        this.meshSmoothingIterations = meshSmoothingIterations;
+    }
+
+    public int getRefinementIterations() {
+        return refinementIterations;
+    }
+
+    /**
+     * @param refinementIterations Le nombre d'itérations d'affinage de la surface sur l'image
+     * (profils le long des normales) ; 0 pour garder les points rééchantillonnés.
+     */
+    public void setRefinementIterations(int refinementIterations) {
+        this.refinementIterations = refinementIterations;
+    }
+
+    public double getTraceLength() {
+        return traceLength;
+    }
+
+    /**
+     * @param traceLength La longueur des profils d'affinage, centrés sur les points, en voxels cibles.
+     */
+    public void setTraceLength(double traceLength) {
+        this.traceLength = traceLength;
+    }
+
+    public double getSamplingDistance() {
+        return samplingDistance;
+    }
+
+    /**
+     * @param samplingDistance La distance entre les échantillons d'un profil d'affinage, en voxels cibles.
+     */
+    public void setSamplingDistance(double samplingDistance) {
+        this.samplingDistance = samplingDistance;
+    }
+
+    public double getOutlierTolerance() {
+        return outlierTolerance;
+    }
+
+    /**
+     * @param outlierTolerance Le facteur de l'écart interquartile des déplacements au-delà duquel
+     * un point affiné est rejeté.
+     */
+    public void setOutlierTolerance(double outlierTolerance) {
+        this.outlierTolerance = outlierTolerance;
+    }
+
+    public OutlierFilter.Mode getOutlierRejection() {
+        return outlierRejection;
+    }
+
+    /**
+     * @param outlierRejection La statistique de rejet des points aberrants avant l'ajustement.
+     */
+    public void setOutlierRejection(OutlierFilter.Mode outlierRejection) {
+        this.outlierRejection = outlierRejection;
+    }
+
+    public double getRejectionThreshold() {
+        return rejectionThreshold;
+    }
+
+    /**
+     * @param rejectionThreshold L'écart à la médiane, en écarts-types robustes, au-delà duquel
+     * un point est rejeté avant l'ajustement.
+     */
+    public void setRejectionThreshold(double rejectionThreshold) {
+        this.rejectionThreshold = rejectionThreshold;
+    }
+
+    public SphericalHarmonicsExpansion.FitMethod getFitMethod() {
+        return fitMethod;
+    }
+
+    /**
+     * @param fitMethod La méthode de résolution des moindres carrés des harmoniques sphériques.
+     */
+    public void setFitMethod(SphericalHarmonicsExpansion.FitMethod fitMethod) {
+        this.fitMethod = fitMethod;
+    }
+
+    public double getRegularization() {
+        return regularization;
+    }
+
+    /**
+     * @param regularization Le poids de la régularisation de Tikhonov des équations normales
+     * (voir {@link SphericalHarmonicsExpansion#setRegularization(double)}).
+     */
+    public void setRegularization(double regularization) {
+        this.regularization = regularization;
+    }
+
+    public int getLebedevOrder() {
+        return lebedevOrder;
+    }
+
+    /**
+     * @param lebedevOrder Le nombre de nœuds de la grille de Lebedev de la quadrature, ou 0 pour
+     * la plus petite grille exacte au degré maximal.
+     */
+    public void setLebedevOrder(int lebedevOrder) {
+        this.lebedevOrder = lebedevOrder;
+    }
+
+    public LinearAlgebraBackend getLinearAlgebra() {
+        return linearAlgebra;
+    }
+
+    /**
+     * @param linearAlgebra Les factorisations des ajustements de l'ellipsoïde et des harmoniques
+     * sphériques.
+     */
+    public void setLinearAlgebra(LinearAlgebraBackend linearAlgebra) {
+        this.linearAlgebra = linearAlgebra;
+    }
+
+    /**
+     * @return La taille physique du voxel (z, x, y).
+     */
+    public double[] getVoxelSize() {
+        return voxelSize;
+    }
+
+    public double getTargetVoxelSize() {
+        return targetVoxelSize;
+    }
+
+    /**
+     * @return Les facteurs d'échelle (z, x, y) vers la taille de voxel cible.
+     */
+    public double[] getScalingFactor() {
+        return scalingFactor;
+    }
+
+    /**
+     * Enregistre la calibration de l'image.
+     *
+     * @param voxelSize La taille physique du voxel (z, x, y).
+     * @param targetVoxelSize La taille cible du voxel après redimensionnement.
+     */
+    public void setCalibration(double[] voxelSize, double targetVoxelSize) {
+        this.voxelSize = voxelSize;
+        this.targetVoxelSize = targetVoxelSize;
+        this.scalingFactor = new double[voxelSize.length];
+        for (int i = 0; i < voxelSize.length; i++) {
+            scalingFactor[i] = voxelSize[i] / targetVoxelSize;
+        }
+    }
+
+    public ImagePlus getSourceImage() {
+        return sourceImage;
+    }
+
+    public void setSourceImage(ImagePlus sourceImage) {
+        this.sourceImage = sourceImage;
+    }
+
+    /**
+     * @return La position (x, y, z) de la zone recadrée dans l'image d'origine, en voxels.
+     */
+    public long[] getCropOffset() {
+        return cropOffset;
+    }
+
+    public void setCropOffset(long[] cropOffset) {
+        this.cropOffset = cropOffset;
+    }
+
+    public IterableInterval<BitType> getBinarizedImage() {
+        return binarizedImage;
+    }
+
+    public void setBinarizedImage(IterableInterval<BitType> binarizedImage) {
+        this.binarizedImage = binarizedImage;
+    }
+
+    /**
+     * @return L'image floutée (ou la norme de son gradient) sur laquelle la surface est détectée :
+     * son isosurface est extraite en mode isosurface, et les points y sont affinés.
+     */
+    public RandomAccessibleInterval<?> getSurfaceImage() {
+        return surfaceImage;
+    }
+
+    public void setSurfaceImage(RandomAccessibleInterval<?> surfaceImage) {
+        this.surfaceImage = surfaceImage;
+    }
+
+    /**
+     * @return Le seuil d'Otsu utilisé comme isovaleur de la surface (mode isosurface).
+     */
+    public double getIsovalue() {
+        return isovalue;
+    }
+
+    public void setIsovalue(double isovalue) {
+        this.isovalue = isovalue;
+    }
+
+    /**
+     * @return Le maillage extrait, aux sommets soudés.
+     */
+    public IndexedMesh getMesh() {
+        return mesh;
+    }
+
+    public void setMesh(IndexedMesh mesh) {
+        this.mesh = mesh;
+    }
+
+    public PointCloud getMeshPoints() {
+        return meshPoints;
+    }
+
+    public void setMeshPoints(PointCloud meshPoints) {
+        this.meshPoints = meshPoints;
+    }
+
+    /**
+     * @return Le maillage lissé, ou le maillage extrait sans lissage.
+     */
+    public IndexedMesh getSmoothedMesh() {
+        return smoothedMesh;
+    }
+
+    public void setSmoothedMesh(IndexedMesh smoothedMesh) {
+        this.smoothedMesh = smoothedMesh;
+    }
+
+    public PointCloud getResampledPoints() {
+        return resampledPoints;
+    }
+
+    public void setResampledPoints(PointCloud resampledPoints) {
+        this.resampledPoints = resampledPoints;
+    }
+
+    /**
+     * @return Les points affinés sur l'image, ou les points rééchantillonnés sans affinage.
+     */
+    public PointCloud getRefinedPoints() {
+        return refinedPoints;
+    }
+
+    public void setRefinedPoints(PointCloud refinedPoints) {
+        this.refinedPoints = refinedPoints;
+    }
+
+    /**
+     * @return Les points retenus après le rejet des points aberrants, ou les points affinés sans rejet.
+     */
+    public PointCloud getFilteredPoints() {
+        return filteredPoints;
+    }
+
+    public void setFilteredPoints(PointCloud filteredPoints) {
+        this.filteredPoints = filteredPoints;
+    }
+
+    public EllipsoidExpander getEllipsoid() {
+        return ellipsoid;
+    }
+
+    public void setEllipsoid(EllipsoidExpander ellipsoid) {
+        this.ellipsoid = ellipsoid;
+    }
+
+    public SphericalHarmonicsExpansion getSphericalHarmonics() {
+        return sphericalHarmonics;
+    }
+
+    public void setSphericalHarmonics(SphericalHarmonicsExpansion sphericalHarmonics) {
+        this.sphericalHarmonics = sphericalHarmonics;
+    }
+
+    public PointCloud getFittedPoints() {
+        return fittedPoints;
+    }
+
+    public void setFittedPoints(PointCloud fittedPoints) {
+        this.fittedPoints = fittedPoints;
+    }
+
+    /**
+     * Crée un contexte avec les mêmes paramètres, la même calibration et la même image source,
+     * mais ses propres résultats et pas d'écouteur : utilisé pour chaque gouttelette d'un champ
+     * qui en contient plusieurs, ou pour chaque temps d'une série temporelle.
+     *
+     * @return Le nouveau contexte.
+     */
+    public PipelineContext createChildContext() {
+        PipelineContext child = new PipelineContext(smoothingSigma, resamplingLength, maxDegree);
+        child.smoothingMode = smoothingMode;
+        child.surfaceDetection = surfaceDetection;
+        child.surfaceExtraction = surfaceExtraction;
+        child.interpolation = interpolation;
+        child.materializeRescaled = materializeRescaled;
+        child.cropToDroplet = cropToDroplet;
+        child.cropMargin = cropMargin;
+        child.minDropletSize = minDropletSize;
+        child.cellCacheMemory = cellCacheMemory;
+        child.meshSmoothingIterations = meshSmoothingIterations;
+        child.refinementIterations = refinementIterations;
+        child.traceLength = traceLength;
+        child.samplingDistance = samplingDistance;
+        child.outlierTolerance = outlierTolerance;
+        child.outlierRejection = outlierRejection;
+        child.rejectionThreshold = rejectionThreshold;
+        child.fitMethod = fitMethod;
+        child.regularization = regularization;
+        child.lebedevOrder = lebedevOrder;
+        child.linearAlgebra = linearAlgebra;
+        child.voxelSize = voxelSize;
+        child.targetVoxelSize = targetVoxelSize;
+        child.scalingFactor = scalingFactor;
+        child.sourceImage = sourceImage;
+        child.cropOffset = cropOffset;
+        return child;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Signale l'avancement de la chaîne de traitement, si un écouteur est enregistré.
+     *
+     * @param value L'avancement, en pourcentage.
+     */
+    public void setProgress(int value) {
+        if (progressListener != null) {
+            progressListener.progressChanged(value);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.mycompany.imagej;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.scijava.vecmath.Point3f;
+
+import net.imagej.mesh.Vertices;
+
+/**
+ * Nuage de points 3D stocké en colonnes (un tableau de floats par coordonnée).
+ *
+ * Contrairement à une {@code List<Point3f>}, un nuage d'un million de points n'occupe que
+ * trois tableaux : aucun objet par point, et un parcours séquentiel de la mémoire. Les étapes
+ * de la chaîne de traitement lisent directement les colonnes ({@link #getX()}, etc.) et peuvent
+ * réutiliser un nuage existant comme tampon de sortie ({@link #clear()} conserve la capacité).
+ *
+ * La conversion en {@code List<Point3f>} n'est faite qu'aux frontières (affichage Java3D).
+ */
+public class PointCloud {
+
+    private float[] x;
+    private float[] y;
+    private float[] z;
+    private int size;
+
+    /**
+     * Crée un nuage vide.
+     *
+     * @param capacity Le nombre de points pouvant être ajoutés sans réallocation.
+     */
+    public PointCloud(int capacity) {
+        this.x = new float[capacity];
+        this.y = new float[capacity];
+        this.z = new float[capacity];
+        this.size = 0;
+    }
+
+    private PointCloud(float[] x, float[] y, float[] z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.size = x.length;
+    }
+
+    /**
+     * Crée un nuage sur des colonnes existantes, sans copie.
+     *
+     * @param x Les coordonnées x.
+     * @param y Les coordonnées y.
+     * @param z Les coordonnées z.
+     * @return Le nuage, qui partage les tableaux passés.
+     */
+    public static PointCloud wrap(float[] x, float[] y, float[] z) {
+        if (y.length != x.length || z.length != x.length) {
+            throw new IllegalArgumentException("Colonnes de tailles différentes : " + x.length + ", " + y.length + ", " + z.length);
+        }
+        return new PointCloud(x, y, z);
+    }
+
+    /**
+     * Crée un nuage à partir des sommets d'un maillage, en une seule passe.
+     *
+     * @param vertices Les sommets du maillage.
+     * @return Le nuage.
+     */
+    public static PointCloud fromVertices(Vertices vertices) {
+        int n = (int) vertices.size();
+        PointCloud cloud = new PointCloud(n);
+        for (int i = 0; i < n; i++) {
+            cloud.x[i] = vertices.xf(i);
+            cloud.y[i] = vertices.yf(i);
+            cloud.z[i] = vertices.zf(i);
+        }
+        cloud.size = n;
+        return cloud;
+    }
+
+    /**
+     * Crée un nuage à partir d'une liste de points.
+     *
+     * @param points Les points.
+     * @return Le nuage.
+     */
+    public static PointCloud fromPoints(List<Point3f> points) {
+        PointCloud cloud = new PointCloud(points.size());
+        for (Point3f point : points) {
+            cloud.add(point.x, point.y, point.z);
+        }
+        return cloud;
+    }
+
+    /**
+     * @return Une liste de points, pour l'affichage Java3D.
+     */
+    public List<Point3f> toPoint3fList() {
+        List<Point3f> points = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            points.add(new Point3f(x[i], y[i], z[i]));
+        }
+        return points;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public float getX(int i) {
+        return x[i];
+    }
+
+    public float getY(int i) {
+        return y[i];
+    }
+
+    public float getZ(int i) {
+        return z[i];
+    }
+
+    /**
+     * @return La colonne des coordonnées x ; seuls les {@link #size()} premiers éléments sont valides.
+     */
+    public float[] getX() {
+        return x;
+    }
+
+    /**
+     * @return La colonne des coordonnées y ; seuls les {@link #size()} premiers éléments sont valides.
+     */
+    public float[] getY() {
+        return y;
+    }
+
+    /**
+     * @return La colonne des coordonnées z ; seuls les {@link #size()} premiers éléments sont valides.
+     */
+    public float[] getZ() {
+        return z;
+    }
+
+    public void set(int i, float px, float py, float pz) {
+        x[i] = px;
+        y[i] = py;
+        z[i] = pz;
+    }
+
+    public void add(float px, float py, float pz) {
+        if (size == x.length) {
+            ensureCapacity(Math.max(16, 2 * size));
+        }
+        x[size] = px;
+        y[size] = py;
+        z[size] = pz;
+        size++;
+    }
+
+    /**
+     * Vide le nuage en conservant ses tableaux, pour le réutiliser comme tampon.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Fixe le nombre de points, en agrandissant les colonnes si besoin ; les nouveaux points
+     * sont à remplir avec {@link #set}.
+     *
+     * @param newSize Le nombre de points.
+     */
+    public void resize(int newSize) {
+        ensureCapacity(newSize);
+        size = newSize;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > x.length) {
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            z = Arrays.copyOf(z, capacity);
+        }
+    }
+
+    /**
+     * @return La taille estimée (en octets) des colonnes.
+     */
+    public long estimateMemory() {
+        return 12L * x.length;
+    }
+}
@@ -1,15 +1,37 @@
 package com.mycompany.imagej;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
 import ij.ImagePlus;
 import ij.measure.Calibration;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealRandomAccessible;
+import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.interpolation.InterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.LanczosInterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
 import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
@@ -17,16 +39,15 @@ import net.imglib2.view.Views;
  * Cette classe contient les méthodes pour le traitement des images.
  */
 public class ProcessImage {
-    public static double targetVoxelSize;
-    public static double[] scalingFactor = new double[3];
 
     /**
      * Initialise les facteurs d'échelle pour chaque dimension de l'image
      * en fonction de la taille du voxel dans chaque dimension par rapport à une taille cible.
      * 
      * @param image L'image à partir de laquelle les facteurs d'échelle seront calculés.
+     * @param context Le contexte d'exécution dans lequel la calibration est enregistrée.
      */
-    public static void initializeTargetScalingFactor(ImagePlus image) {
+    public static void initializeTargetScalingFactor(ImagePlus image, PipelineContext context) {
         
         // Récupérer les informations de calibration de l'image
         Calibration cal = image.getCalibration();
@@ -50,18 +71,14 @@ public class ProcessImage {
         double targetVoxelSize = x; // Taille cible du voxel
         
         // Calculer le tableau des facteurs d'échelle pour chaque dimension
-        for (int i = 0; i < 3; i++) {
-            scalingFactor[i] = voxelSize[i] / targetVoxelSize;
-            System.out.println("Coefficient d'échelle pour la dimension " + i + ": " + scalingFactor[i]);
-        }
-    }
-
-    public static double getTargetVoxelSize() {
-        return targetVoxelSize;
+        context.setCalibration(voxelSize, targetVoxelSize);
     }
 
-    public static double[] getScalingFactor() {
-        return scalingFactor;
+    /**
+     * Les méthodes d'interpolation disponibles pour le redimensionnement.
+     */
+    public enum Interpolation {
+        NEAREST, LINEAR, LANCZOS
     }
 
     /**
@@ -71,34 +88,357 @@ public class ProcessImage {
      * 
      * @return L'image redimensionnée.
      */
-    @SuppressWarnings("unchecked")
 	public static <T extends RealType<T>> RandomAccessibleInterval<T> rescaleImage(RandomAccessibleInterval<T> image, double[] scalingFactors) {
-        // Créer une transformation affine avec les facteurs d'échelle spécifiés
-        AffineTransform3D transform = new AffineTransform3D();
-        double x = scalingFactors[1];
-        double y = scalingFactors[2];
-        double z = scalingFactors[0];
-        transform.scale(x, y, z);
+        RandomAccessible<T> transformed = transformImage(image, scalingFactors, Interpolation.NEAREST);
+        if (transformed == null) {
+            return null;
+        }
+
+        // Créer une nouvelle RandomAccessibleInterval avec les nouvelles dimensions
+        IntervalView<T> rescaledImage = Views.interval(transformed, rescaledInterval(image, scalingFactors));
+
+        return rescaledImage;
+    }
 
-        // Interpoler l'image avec la méthode du plus proche voisin
-        RealRandomAccessible<T> interpolated = Views.interpolate(Views.extendBorder(image), new NearestNeighborInterpolatorFactory<>());
-        RealRandomAccessible<T> transformed = RealViews.transform(interpolated, transform);
+    /**
+     * Redimensionne une image avec les facteurs d'échelle et la méthode d'interpolation spécifiés.
+     * 
+     * Si {@code materialize} est vrai, l'image est rééchantillonnée une seule fois dans une image
+     * contiguë ({@code ArrayImg}, ou {@code CellImg} si elle est trop grande), par blocs de plans z
+     * répartis sur plusieurs threads ; les étapes suivantes n'ont alors plus à évaluer la
+     * transformation et l'interpolation à chaque lecture.
+     * 
+     * @param image L'image à redimensionner.
+     * @param scalingFactors Les facteurs d'échelle pour chaque dimension de l'image (z, x, y).
+     * @param interpolation La méthode d'interpolation.
+     * @param materialize Vrai pour calculer l'image redimensionnée, faux pour une vue paresseuse.
+     * 
+     * @return L'image redimensionnée.
+     */
+	public static <T extends RealType<T> & NativeType<T>> RandomAccessibleInterval<T> rescaleImage(RandomAccessibleInterval<T> image, double[] scalingFactors,
+            Interpolation interpolation, boolean materialize) {
+        RandomAccessible<T> transformed = transformImage(image, scalingFactors, interpolation);
+        if (transformed == null) {
+            return null;
+        }
+        Interval interval = rescaledInterval(image, scalingFactors);
+        if (!materialize) {
+            return Views.interval(transformed, interval);
+        }
 
+        // Créer l'image de sortie
+        T type = Util.getTypeFromInterval(image).createVariable();
+        long[] dimensions = Intervals.dimensionsAsLongArray(interval);
+        ImgFactory<T> factory = Intervals.numElements(interval) < Integer.MAX_VALUE
+                ? new ArrayImgFactory<>(type)
+                : new CellImgFactory<>(type);
+        Img<T> rescaledImage = factory.create(dimensions);
+
+        // Rééchantillonner par blocs de plans z, en parallèle
+        long depth = dimensions[2];
+        int numBlocks = (int) Math.min(depth, 4L * Runtime.getRuntime().availableProcessors());
+        IntStream.range(0, numBlocks).parallel().forEach(block -> {
+            long zMin = depth * block / numBlocks;
+            long zMax = depth * (block + 1) / numBlocks - 1;
+            Interval blockInterval = Intervals.createMinMax(0, 0, zMin, dimensions[0] - 1, dimensions[1] - 1, zMax);
+
+            RandomAccess<T> input = transformed.randomAccess();
+            Cursor<T> output = Views.interval(rescaledImage, blockInterval).localizingCursor();
+            while (output.hasNext()) {
+                output.fwd();
+                input.setPosition(output);
+                output.get().set(input.get());
+            }
+        });
+
+        return rescaledImage;
+    }
+
+    /**
+     * Applique la mise à l'échelle à l'image interpolée.
+     * 
+     * @return L'image transformée, définie sur tout l'espace, ou {@code null} si l'image n'est pas en 3D.
+     */
+    private static <T extends RealType<T>> RandomAccessible<T> transformImage(RandomAccessibleInterval<T> image, double[] scalingFactors,
+            Interpolation interpolation) {
         if (image.numDimensions() != 3) {
             System.out.println("Erreur dans les dimensions de l'image");
             return null;
         }
 
-        // Calculer les nouvelles dimensions de l'image
+        // Créer une transformation affine avec les facteurs d'échelle spécifiés
+        AffineTransform3D transform = new AffineTransform3D();
+        transform.scale(scalingFactors[1], scalingFactors[2], scalingFactors[0]);
+
+        // Interpoler l'image avec la méthode choisie
+        RealRandomAccessible<T> interpolated = Views.interpolate(Views.extendBorder(image), interpolatorFactory(interpolation));
+        return RealViews.affine(interpolated, transform);
+    }
+
+    private static <T extends RealType<T>> InterpolatorFactory<T, RandomAccessible<T>> interpolatorFactory(Interpolation interpolation) {
+        switch (interpolation) {
+        case LINEAR:
+            return new NLinearInterpolatorFactory<>();
+        case LANCZOS:
+            return new LanczosInterpolatorFactory<>();
+        default:
+            return new NearestNeighborInterpolatorFactory<>();
+        }
+    }
+
+    /**
+     * Calcule les dimensions de l'image redimensionnée.
+     */
+    private static Interval rescaledInterval(Interval image, double[] scalingFactors) {
         long[] newDimensions = new long[3];
-        newDimensions[0] = (long) (image.dimension(0) * x);
-        newDimensions[1] = (long) (image.dimension(1) * y);
-        newDimensions[2] = (long) (image.dimension(2) * z);
+        newDimensions[0] = (long) (image.dimension(0) * scalingFactors[1]);
+        newDimensions[1] = (long) (image.dimension(1) * scalingFactors[2]);
+        newDimensions[2] = (long) (image.dimension(2) * scalingFactors[0]);
+        return Intervals.createMinSize(0,  0,  0, newDimensions[0], newDimensions[1], newDimensions[2]);
+    }
 
-        // Créer une nouvelle RandomAccessibleInterval avec les nouvelles dimensions
-        IntervalView<T> rescaledImage = Views.interval((RandomAccessible<T>) transformed, Intervals.createMinSize(0,  0,  0, newDimensions[0], newDimensions[1], newDimensions[2]));
+    /**
+     * Convertit un sigma en microns en sigmas en voxels pour chaque axe de l'image.
+     *
+     * @param sigmaMicrons Le sigma du flou, en microns.
+     * @param voxelSize La taille physique du voxel (z, x, y).
+     * @return Le sigma pour chaque axe (x, y, z), en voxels.
+     */
+    static double[] physicalSigma(double sigmaMicrons, double[] voxelSize) {
+        return new double[] {
+            sigmaMicrons / voxelSize[1],
+            sigmaMicrons / voxelSize[2],
+            sigmaMicrons / voxelSize[0]
+        };
+    }
 
-        return rescaledImage;
+    /**
+     * Applique un flou gaussien directement sur l'image à sa résolution d'origine, avec un sigma
+     * exprimé en microns : le sigma de chaque axe est converti en pixels selon la taille du voxel
+     * dans cet axe. Le filtre est séparable et réparti sur plusieurs threads.
+     * 
+     * Contrairement à {@link #rescaleImage}, l'image n'est pas sur-échantillonnée en z avant le flou.
+     * 
+     * @param image L'image à flouter (x, y, z), à sa résolution d'origine.
+     * @param sigmaMicrons Le sigma du flou, en microns.
+     * @param voxelSize La taille physique du voxel (z, x, y).
+     * 
+     * @return L'image floutée.
+     */
+    public static <T extends RealType<T>> Img<FloatType> gaussPhysical(RandomAccessibleInterval<T> image, double sigmaMicrons, double[] voxelSize) {
+        double[] sigma = physicalSigma(sigmaMicrons, voxelSize);
+
+        long[] dimensions = Intervals.dimensionsAsLongArray(image);
+        ImgFactory<FloatType> factory = Intervals.numElements(image) < Integer.MAX_VALUE
+                ? new ArrayImgFactory<>(new FloatType())
+                : new CellImgFactory<>(new FloatType());
+        Img<FloatType> blurredImage = factory.create(dimensions);
+
+        try {
+            Gauss3.gauss(sigma, Views.extendMirrorSingle(Views.zeroMin(image)), blurredImage, ForkJoinPool.commonPool());
+        } catch (IncompatibleTypeException e) {
+            throw new IllegalArgumentException("Type d'image non supporté pour le flou gaussien", e);
+        }
+        return blurredImage;
+    }
+
+    /**
+     * Cherche la boîte englobante de la gouttelette par une passe rapide sur une version
+     * sous-échantillonnée de l'image : chaque bloc de {@code blockSize}³ voxels est réduit à son
+     * maximum, puis un seuil d'Otsu grossier sépare les blocs de la gouttelette du fond.
+     * 
+     * @param image L'image (x, y, z).
+     * @param blockSize La taille des blocs, en voxels.
+     * @param margin La marge ajoutée autour de la boîte, en voxels.
+     * 
+     * @return La boîte englobante de la gouttelette, ou l'image entière si aucun bloc ne dépasse le
+     * seuil.
+     */
+    public static <T extends RealType<T>> Interval findDropletBounds(RandomAccessibleInterval<T> image, int blockSize, long margin) {
+        long[] min = Intervals.minAsLongArray(image);
+        long[] max = Intervals.maxAsLongArray(image);
+        int[] cells = new int[3];
+        for (int d = 0; d < 3; d++) {
+            cells[d] = (int) ((image.dimension(d) + blockSize - 1) / blockSize);
+        }
+
+        // Maximum de chaque bloc, calculé par tranches de blocs en z, en parallèle
+        float[] cellMax = new float[cells[0] * cells[1] * cells[2]];
+        Arrays.fill(cellMax, Float.NEGATIVE_INFINITY);
+        IntStream.range(0, cells[2]).parallel().forEach(k -> {
+            long zMin = min[2] + (long) k * blockSize;
+            long zMax = Math.min(zMin + blockSize - 1, max[2]);
+            Cursor<T> cursor = Views.interval(image, new long[] {min[0], min[1], zMin}, new long[] {max[0], max[1], zMax}).localizingCursor();
+            while (cursor.hasNext()) {
+                float value = cursor.next().getRealFloat();
+                int i = (int) ((cursor.getLongPosition(0) - min[0]) / blockSize);
+                int j = (int) ((cursor.getLongPosition(1) - min[1]) / blockSize);
+                int index = (k * cells[1] + j) * cells[0] + i;
+                if (value > cellMax[index]) {
+                    cellMax[index] = value;
+                }
+            }
+        });
+
+        // Seuil d'Otsu sur les maxima des blocs
+        float lowest = Float.POSITIVE_INFINITY, highest = Float.NEGATIVE_INFINITY;
+        for (float value : cellMax) {
+            lowest = Math.min(lowest, value);
+            highest = Math.max(highest, value);
+        }
+        if (highest <= lowest) {
+            return new FinalInterval(min, max);
+        }
+        long[] histogram = new long[256];
+        for (float value : cellMax) {
+            histogram[histogramBin(value, lowest, highest, histogram.length)]++;
+        }
+        double threshold = otsuThreshold(histogram, lowest, highest);
+
+        // Boîte englobante des blocs au-dessus du seuil
+        int[] cellMin = new int[] {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+        int[] cellMaxIndex = new int[] {-1, -1, -1};
+        for (int k = 0; k < cells[2]; k++) {
+            for (int j = 0; j < cells[1]; j++) {
+                for (int i = 0; i < cells[0]; i++) {
+                    if (cellMax[(k * cells[1] + j) * cells[0] + i] > threshold) {
+                        int[] cell = new int[] {i, j, k};
+                        for (int d = 0; d < 3; d++) {
+                            cellMin[d] = Math.min(cellMin[d], cell[d]);
+                            cellMaxIndex[d] = Math.max(cellMaxIndex[d], cell[d]);
+                        }
+                    }
+                }
+            }
+        }
+        if (cellMaxIndex[0] < 0) {
+            return new FinalInterval(min, max);
+        }
+
+        long[] boundsMin = new long[3];
+        long[] boundsMax = new long[3];
+        for (int d = 0; d < 3; d++) {
+            boundsMin[d] = Math.max(min[d], min[d] + (long) cellMin[d] * blockSize - margin);
+            boundsMax[d] = Math.min(max[d], min[d] + (long) (cellMaxIndex[d] + 1) * blockSize - 1 + margin);
+        }
+        return new FinalInterval(boundsMin, boundsMax);
+    }
+
+    /**
+     * Calcule le seuil d'Otsu d'une image sur un histogramme de 256 classes, accumulé bloc par
+     * bloc en parallèle (une passe pour les bornes, une pour l'histogramme).
+     *
+     * @param image L'image.
+     * @param blockSize La taille des blocs parcourus par chaque tâche, en voxels.
+     * @return Le seuil d'Otsu, dans les unités de l'image.
+     */
+    public static <T extends RealType<T>> double otsuLevel(RandomAccessibleInterval<T> image, int blockSize) {
+        List<Interval> blocks = blocks(image, blockSize);
+
+        // Première passe : bornes de l'histogramme
+        float[] range = blocks.parallelStream().map(block -> {
+            float[] blockRange = new float[] {Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+            for (T value : Views.interval(image, block)) {
+                float v = value.getRealFloat();
+                blockRange[0] = Math.min(blockRange[0], v);
+                blockRange[1] = Math.max(blockRange[1], v);
+            }
+            return blockRange;
+        }).reduce(new float[] {Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY},
+                (a, b) -> new float[] {Math.min(a[0], b[0]), Math.max(a[1], b[1])});
+
+        // Seconde passe : histogramme de chaque bloc, puis somme
+        double min = range[0];
+        double max = range[1];
+        if (max <= min) {
+            return max;
+        }
+        long[] histogram = blocks.parallelStream().map(block -> {
+            long[] blockHistogram = new long[256];
+            for (T value : Views.interval(image, block)) {
+                blockHistogram[histogramBin(value.getRealDouble(), min, max, blockHistogram.length)]++;
+            }
+            return blockHistogram;
+        }).reduce(new long[256], (a, b) -> {
+            long[] sum = new long[a.length];
+            for (int i = 0; i < a.length; i++) {
+                sum[i] = a[i] + b[i];
+            }
+            return sum;
+        });
+        return otsuThreshold(histogram, min, max);
+    }
+
+    /**
+     * Découpe un intervalle 3D en blocs cubiques (les blocs du bord peuvent être plus petits).
+     *
+     * @param interval L'intervalle à découper.
+     * @param blockSize La taille des blocs, en voxels.
+     * @return Les blocs, x variant le plus vite.
+     */
+    static List<Interval> blocks(Interval interval, int blockSize) {
+        List<Interval> blocks = new ArrayList<>();
+        for (long z = interval.min(2); z <= interval.max(2); z += blockSize) {
+            for (long y = interval.min(1); y <= interval.max(1); y += blockSize) {
+                for (long x = interval.min(0); x <= interval.max(0); x += blockSize) {
+                    blocks.add(Intervals.createMinMax(x, y, z,
+                            Math.min(x + blockSize - 1, interval.max(0)),
+                            Math.min(y + blockSize - 1, interval.max(1)),
+                            Math.min(z + blockSize - 1, interval.max(2))));
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Calcule le seuil d'Otsu d'un histogramme.
+     * 
+     * @param histogram L'histogramme.
+     * @param min La valeur correspondant au début du premier intervalle.
+     * @param max La valeur correspondant à la fin du dernier intervalle.
+     * 
+     * @return Le seuil : les valeurs strictement supérieures appartiennent à l'objet.
+     */
+    public static double otsuThreshold(long[] histogram, double min, double max) {
+        double total = 0;
+        double sum = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            total += histogram[i];
+            sum += (double) i * histogram[i];
+        }
+
+        double sumBackground = 0;
+        double weightBackground = 0;
+        double maxVariance = -1;
+        int best = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            weightBackground += histogram[i];
+            if (weightBackground == 0) {
+                continue;
+            }
+            double weightForeground = total - weightBackground;
+            if (weightForeground == 0) {
+                break;
+            }
+            sumBackground += (double) i * histogram[i];
+            double meanBackground = sumBackground / weightBackground;
+            double meanForeground = (sum - sumBackground) / weightForeground;
+            double variance = weightBackground * weightForeground * (meanBackground - meanForeground) * (meanBackground - meanForeground);
+            if (variance > maxVariance) {
+                maxVariance = variance;
+                best = i;
+            }
+        }
+        return min + (best + 1) * (max - min) / histogram.length;
+    }
+
+    /**
+     * Renvoie l'intervalle de l'histogramme dans lequel tombe une valeur.
+     */
+    static int histogramBin(double value, double min, double max, int bins) {
+        int bin = (int) ((value - min) / (max - min) * bins);
+        return Math.max(0, Math.min(bins - 1, bin));
     }
 
 }
\ No newline at end of file
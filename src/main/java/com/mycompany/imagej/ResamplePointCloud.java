@@ -1,131 +1,125 @@
 package com.mycompany.imagej;
 
-import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
-import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
-import org.scijava.vecmath.Point3f;
-
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
  * Cette classe contient les methodes pour le reechantillonnage et l'interpolation d'un nuage de points en 3D.
+ *
+ * Les directions des points, vues depuis leur centre de gravite, sont rangees dans une grille
+ * angulaire (theta, phi) ; chaque direction de Fibonacci est ensuite traitee en parallele, en
+ * ne parcourant que les cases proches : le rayon y est interpole (ponderation par l'inverse de
+ * la distance angulaire) a partir des points voisins.
  */
 public class ResamplePointCloud {
 
+    /** Le nombre moyen de points par case de la grille angulaire. */
+    private static final int POINTS_PER_CELL = 4;
+    /** Le rayon de recherche, en multiples de l'ecart angulaire moyen entre les points. */
+    private static final double SEARCH_RADIUS = 1.5;
+
     /**
      * Reechantillonne un nuage de points de type spherique sur une grille de Fibonacci.
      * 
-     * @param points La liste des points du nuage a reechantillonner.
+     * @param points Le nuage de points a reechantillonner.
      * @param samplingLength Distance entre les emplacements des points echantillonnes.
      * @return Les points reechantillonnes.
      * 
      * @see https://github.com/campaslab/napari-stress/blob/8ede222ebfb5f1209c368ce8263ca74a1914e4c9/src/napari_stress/_reconstruction/refine_surfaces.py#L234
      * 
      */
-    public static List<Point3f> resamplePointCloud(List<Point3f> points, double samplingLength) {
+    public static PointCloud resamplePointCloud(PointCloud points, double samplingLength) {
+        return resamplePointCloud(points, samplingLength, new PointCloud(0));
+    }
+
+    /**
+     * Reechantillonne un nuage de points de type spherique sur une grille de Fibonacci, dans un
+     * nuage de sortie reutilise.
+     * 
+     * @param points Le nuage de points a reechantillonner.
+     * @param samplingLength Distance entre les emplacements des points echantillonnes.
+     * @param out Le nuage qui recoit les points reechantillonnes (son contenu est remplace).
+     * @return Le nuage de sortie.
+     */
+    public static PointCloud resamplePointCloud(PointCloud points, double samplingLength, PointCloud out) {
         // Conversion en coordonnees spheriques, relatives
-        Point3f center = calculateCenter(points);
-        List<Point3f> pointsCentered = new ArrayList<>();
-        for (Point3f point : points) {
-            pointsCentered.add(new Point3f(point.x - center.x, point.y - center.y, point.z - center.z));
-        }
-        List<Point3f> pointsSpherical = cart2spher(pointsCentered);
+        float[] center = calculateCenter(points);
+        PointCloud pointsSpherical = cart2spher(points, center);
         
         // Estimation du nombre de points en fonction de la longueur d'echantillonnage passee
+        float[] rho = pointsSpherical.getX();
         double meanRadius = 0;
-        for (Point3f point : pointsSpherical) {
-            meanRadius += Math.sqrt(point.x * point.x + point.y * point.y + point.z * point.z);
+        for (int i = 0; i < pointsSpherical.size(); i++) {
+            meanRadius += rho[i];
         }
         meanRadius = meanRadius / pointsSpherical.size();
         double surfaceArea = meanRadius * meanRadius * 4 * Math.PI;
         int n = (int) (surfaceArea / (samplingLength * samplingLength));
 
-        // Echantillonnage des points sur la sphere unitaire selon le schema de Fibonacci
-        List<Point3f> sampledPoints = fibonacciSampling(n);
-
-        // Interpolation des coordonnees
-        List<Point3f> interpolatedPoints = interpolateCoordinates(pointsSpherical, sampledPoints);
+        // Echantillonnage des directions sur la sphere unitaire selon le schema de Fibonacci
+        PointCloud sampledPoints = fibonacciSampling(n);
 
-        return spher2cart(interpolatedPoints);
+        // Interpolation du rayon dans chaque direction, puis retour dans le repere d'origine
+        interpolateCoordinates(pointsSpherical, sampledPoints, out);
+        for (int i = 0; i < out.size(); i++) {
+            out.set(i, out.getX(i) + center[0], out.getY(i) + center[1], out.getZ(i) + center[2]);
+        }
+        return out;
     }
     
     /**
      * Calcule le centre de gravite du nuage de points.
      * 
-     * @param points La liste des points du nuage.
+     * @param points Le nuage de points.
      * 
-     * @return Le centre de gravite du nuage de points.
+     * @return Le centre de gravite (x, y, z) du nuage de points.
      */
-    private static Point3f calculateCenter(List<Point3f> points) {
-        float sumX = 0, sumY = 0, sumZ = 0;
-        for (Point3f point : points) {
-            sumX += point.x;
-            sumY += point.y;
-            sumZ += point.z;
+    private static float[] calculateCenter(PointCloud points) {
+        double sumX = 0, sumY = 0, sumZ = 0;
+        for (int i = 0; i < points.size(); i++) {
+            sumX += points.getX(i);
+            sumY += points.getY(i);
+            sumZ += points.getZ(i);
         }
-        return new Point3f(sumX / points.size(), sumY / points.size(), sumZ / points.size());
+        return new float[] {(float) (sumX / points.size()), (float) (sumY / points.size()), (float) (sumZ / points.size())};
     }
     
     /**
-     * Convertit les coordonnees cartesiennes en coordonnees spheriques.
+     * Convertit les coordonnees cartesiennes, relatives a un centre, en coordonnees spheriques.
      * 
-     * @param points La liste des points en coordonnees cartesiennes.
-     * @return La liste des points en coordonnees spheriques.
+     * @param points Le nuage en coordonnees cartesiennes.
+     * @param center Le centre (x, y, z) du repere spherique.
+     * @return Le nuage en coordonnees spheriques (rho, theta, phi).
      * 
      * @see https://github.com/marcomusy/vedo/blob/cb0b514f5026afd841cef65fa8a4d5eb4bdc5fd5/vedo/transformations.py#L1110
      */
-    private static List<Point3f> cart2spher(List<Point3f> points) {
-        List<Point3f> pointsSpherical = new ArrayList<>();
-
-        for (Point3f p : points) {
-            double hxy = Math.hypot(p.x, p.y);
-            double rho = Math.hypot(hxy, p.z);
-            double theta = Math.atan2(hxy, p.z);
-            double phi = Math.atan2(p.y, p.x);
+    private static PointCloud cart2spher(PointCloud points, float[] center) {
+        PointCloud pointsSpherical = new PointCloud(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            float px = points.getX(i) - center[0];
+            float py = points.getY(i) - center[1];
+            float pz = points.getZ(i) - center[2];
+            double hxy = Math.hypot(px, py);
+            double rho = Math.hypot(hxy, pz);
+            double theta = Math.atan2(hxy, pz);
+            double phi = Math.atan2(py, px);
 
-            pointsSpherical.add(new Point3f((float)rho, (float)theta, (float)phi));
+            pointsSpherical.add((float) rho, (float) theta, (float) phi);
         }
 
         return pointsSpherical;
     }
     
-    /**
-     * Convertit les coordonnees spheriques en coordonnees cartesiennes.
-     * 
-     * @param points La liste des points en coordonnees spheriques.
-     * @return La liste des points en coordonnees cartesiennes.
-     * 
-     * @see https://github.com/marcomusy/vedo/blob/cb0b514f5026afd841cef65fa8a4d5eb4bdc5fd5/vedo/transformations.py#L1121
-     */
-    private static List<Point3f> spher2cart(List<Point3f> points) {
-        List<Point3f> pointsCartesian = new ArrayList<>();
-
-        for (Point3f p : points) {
-            double st = Math.sin(p.y);
-            double sp = Math.sin(p.z);
-            double ct = Math.cos(p.y);
-            double cp = Math.cos(p.z);
-            double rst = p.x * st;
-            double x = rst * cp;
-            double y = rst * sp;
-            double z = p.x * ct;
-
-            pointsCartesian.add(new Point3f((float)x, (float)y, (float)z));
-        }
-
-        return pointsCartesian;
-    }
-
     /**
      * Echantillonne les points sur une sphere selon le schema de Fibonacci.
      * 
      * @param numberOfPoints Le nombre de points a echantillonner.
-     * @return Une liste de points echantillonnes sur la sphere.
+     * @return Les points echantillonnes sur la sphere.
      * 
      * @see https://github.com/campaslab/napari-stress/blob/8ede222ebfb5f1209c368ce8263ca74a1914e4c9/src/napari_stress/_reconstruction/fit_utils.py#L129
      */
-    private static List<Point3f> fibonacciSampling(int numberOfPoints) {
-        List<Point3f> points = new ArrayList<>();
+    private static PointCloud fibonacciSampling(int numberOfPoints) {
+        PointCloud points = new PointCloud(numberOfPoints);
         double goldenRatio = (1.0 + Math.sqrt(5.0)) / 2.0;
 
         for (int i = 0; i < numberOfPoints; i++) {
@@ -135,81 +129,150 @@ public class ResamplePointCloud {
             double y = Math.sin(theta) * Math.sin(phi);
             double z = Math.cos(phi);
 
-            points.add(new Point3f((float)x, (float)y, (float)z));
+            points.add((float) x, (float) y, (float) z);
         }
 
         return points;
     }
     
     /**
-     * Interpole les coordonnees des points pour correspondre aux points echantillones.
+     * Interpole le rayon des points dans chaque direction echantillonnee.
      * 
-     * @param points Les coordonnees des points a interpoler.
-     * @param sampledPoints Les points echantillonnes.
-     * @return Une liste de points interpoles.
+     * @param points Les points en coordonnees spheriques (rho, theta, phi).
+     * @param sampledPoints Les directions echantillonnees (vecteurs unitaires).
+     * @param out Le nuage qui recoit les points interpoles, relatifs au centre du repere
+     * spherique (son contenu est remplace).
      */
-    public static List<Point3f> interpolateCoordinates(List<Point3f> points, List<Point3f> sampledPoints) {
-        // Extraire les coordonnees x, y, z des points
-        double[] x = new double[points.size()];
-        double[] y = new double[points.size()];
-        double[] z = new double[points.size()];
+    public static void interpolateCoordinates(PointCloud points, PointCloud sampledPoints, PointCloud out) {
+        AngularGrid grid = new AngularGrid(points);
+        double radius = SEARCH_RADIUS * Math.sqrt(4 * Math.PI / Math.max(1, points.size()));
 
-        for (int i = 0; i < points.size(); i++) {
-            Point3f point = points.get(i);
-            x[i] = point.x;
-            y[i] = point.y;
-            z[i] = point.z;
-        }
+        out.resize(sampledPoints.size());
+        float[] dx = sampledPoints.getX();
+        float[] dy = sampledPoints.getY();
+        float[] dz = sampledPoints.getZ();
+        IntStream.range(0, sampledPoints.size()).parallel().forEach(i -> {
+            double rho = grid.interpolateRadius(dx[i], dy[i], dz[i], radius);
+            out.set(i, (float) (rho * dx[i]), (float) (rho * dy[i]), (float) (rho * dz[i]));
+        });
+    }
 
-        // Interpoler les coordonnees x, y, z separement
-        double[] interpolatedX = interpolate1D(x, sampledPoints.size());
-        double[] interpolatedY = interpolate1D(y, sampledPoints.size());
-        double[] interpolatedZ = interpolate1D(z, sampledPoints.size());
+    /**
+     * Grille de cases (theta, phi) regulieres contenant les directions des points, au format
+     * CSR : les points de la case c sont {@code indices[offsets[c]]} a
+     * {@code indices[offsets[c + 1] - 1]}.
+     */
+    private static class AngularGrid {
+        private final int numTheta;
+        private final int numPhi;
+        private final int[] offsets;
+        private final int[] indices;
+        private final float[] ux;
+        private final float[] uy;
+        private final float[] uz;
+        private final float[] rho;
 
-        // Combiner les coordonnees interpolees en objets Point3f
-        List<Point3f> interpolatedPoints = new ArrayList<>();
-        for (int i = 0; i < sampledPoints.size(); i++) {
-            interpolatedPoints.add(new Point3f((float) interpolatedX[i], (float) interpolatedY[i], (float) interpolatedZ[i]));
+        AngularGrid(PointCloud points) {
+            int n = points.size();
+            numTheta = Math.max(1, (int) Math.sqrt(n / (2.0 * POINTS_PER_CELL)));
+            numPhi = 2 * numTheta;
+            rho = points.getX();
+            ux = new float[n];
+            uy = new float[n];
+            uz = new float[n];
+
+            // Tri par case (tri par denombrement)
+            int[] cells = new int[n];
+            offsets = new int[numTheta * numPhi + 1];
+            for (int i = 0; i < n; i++) {
+                double theta = points.getY(i);
+                double phi = points.getZ(i);
+                ux[i] = (float) (Math.sin(theta) * Math.cos(phi));
+                uy[i] = (float) (Math.sin(theta) * Math.sin(phi));
+                uz[i] = (float) Math.cos(theta);
+                cells[i] = thetaIndex(theta) * numPhi + phiIndex(phi);
+                offsets[cells[i] + 1]++;
+            }
+            for (int c = 0; c < numTheta * numPhi; c++) {
+                offsets[c + 1] += offsets[c];
+            }
+            indices = new int[n];
+            int[] fill = Arrays.copyOf(offsets, numTheta * numPhi);
+            for (int i = 0; i < n; i++) {
+                indices[fill[cells[i]]++] = i;
+            }
         }
 
-        return interpolatedPoints;
-    }
+        private int thetaIndex(double theta) {
+            return Math.min(numTheta - 1, Math.max(0, (int) (theta / Math.PI * numTheta)));
+        }
 
-    /**
-     * Interpole un ensemble de donnees 1D.
-     * 
-     * @param data Les donnees a interpoler.
-     * @param n Le nombre de points a interpoler.
-     * @return Les valeurs interpolees.
-     */
-    private static double[] interpolate1D(double[] data, int n) {
-        // On utilise un interpolateur de spline pour interpoler les donnees
-        SplineInterpolator interpolator = new SplineInterpolator();
-        PolynomialSplineFunction splineFunction = interpolator.interpolate(getSampleIndices(data.length), data);
-
-        // evaluer la fonction de spline aux points echantillonnes
-        double[] interpolatedValues = new double[n];
-        double step = (double) (data.length - 1) / (n - 1);
-        for (int i = 0; i < n; i++) {
-            double x = i * step;
-            interpolatedValues[i] = splineFunction.value(x);
+        private int phiIndex(double phi) {
+            return Math.floorMod((int) Math.floor((phi + Math.PI) / (2 * Math.PI) * numPhi), numPhi);
         }
 
-        return interpolatedValues;
-    }
+        /**
+         * Interpole le rayon dans une direction, a partir des points situes a moins d'une distance
+         * angulaire donnee ; la distance est doublee tant qu'aucun point n'est trouve.
+         */
+        double interpolateRadius(double dx, double dy, double dz, double radius) {
+            double theta = Math.acos(Math.max(-1, Math.min(1, dz)));
+            double phi = Math.atan2(dy, dx);
+            for (double r = radius; ; r *= 2) {
+                double cosRadius = Math.cos(Math.min(r, Math.PI));
+                double weightSum = 0;
+                double radiusSum = 0;
+                int tMin = thetaIndex(theta - r);
+                int tMax = thetaIndex(theta + r);
+                for (int t = tMin; t <= tMax; t++) {
+                    // Ecart en phi au-dela duquel une case est plus loin que r (formule du
+                    // haversine, avec le plus petit sin(theta) de la rangee)
+                    double sinRow = Math.min(Math.sin((double) t / numTheta * Math.PI), Math.sin((double) (t + 1) / numTheta * Math.PI));
+                    double bound = haversine(r) / (Math.sin(theta) * sinRow);
+                    int pMin, pMax;
+                    if (r >= Math.PI || !(bound < 1)) {
+                        pMin = 0;
+                        pMax = numPhi - 1;
+                    } else {
+                        double dPhi = 2 * Math.asin(Math.sqrt(bound));
+                        pMin = (int) Math.floor((phi - dPhi + Math.PI) / (2 * Math.PI) * numPhi);
+                        pMax = (int) Math.floor((phi + dPhi + Math.PI) / (2 * Math.PI) * numPhi);
+                        if (pMax - pMin >= numPhi - 1) {
+                            pMin = 0;
+                            pMax = numPhi - 1;
+                        }
+                    }
+                    for (int p = pMin; p <= pMax; p++) {
+                        int cell = t * numPhi + Math.floorMod(p, numPhi);
+                        for (int k = offsets[cell]; k < offsets[cell + 1]; k++) {
+                            int i = indices[k];
+                            double cos = ux[i] * dx + uy[i] * dy + uz[i] * dz;
+                            if (cos < cosRadius) {
+                                continue;
+                            }
+                            double distance = Math.acos(Math.min(1, cos));
+                            if (distance < 1e-7) {
+                                return rho[i];
+                            }
+                            double weight = 1 / distance;
+                            weightSum += weight;
+                            radiusSum += weight * rho[i];
+                        }
+                    }
+                }
+                if (weightSum > 0) {
+                    return radiusSum / weightSum;
+                }
+                if (r >= Math.PI) {
+                    return 0;
+                }
+            }
+        }
 
-    /**
-     * Genere les indices d'echantillonnage.
-     * 
-     * @param n Le nombre d'indices a generer.
-     * @return Les indices d'echantillonnage.
-     */
-    private static double[] getSampleIndices(int n) {
-        double[] indices = new double[n];
-        for (int i = 0; i < n; i++) {
-            indices[i] = i;
+        private static double haversine(double angle) {
+            double s = Math.sin(angle / 2);
+            return s * s;
         }
-        return indices;
     }
     
 
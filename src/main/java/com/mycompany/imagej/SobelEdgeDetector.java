@@ -0,0 +1,133 @@
+package com.mycompany.imagej;
+
+import java.util.stream.IntStream;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Cette classe calcule la norme du gradient de Sobel 3D d'une image, comme l'étape
+ * {@code apply_3d_sobel_filter} du workflow Python (Detect_edges.ipynb).
+ *
+ * Chaque noyau de Sobel 3D est séparable : une dérivée [-1, 0, 1] selon son axe et un lissage
+ * [1, 2, 1] selon les deux autres. Le filtre est donc appliqué axe par axe, plan z par plan z,
+ * en ne gardant que trois plans de l'image en mémoire ; les tranches de plans sont traitées en
+ * parallèle. L'image est prolongée par des zéros et les voxels du bord sont mis à zéro.
+ */
+public class SobelEdgeDetector {
+
+    /**
+     * Calcule la norme du gradient de Sobel de toute l'image.
+     *
+     * @param image L'image (x, y, z).
+     * @return La norme du gradient, de même taille que l'image et d'origine nulle.
+     */
+    public static <T extends RealType<T>> Img<FloatType> gradientMagnitude(RandomAccessibleInterval<T> image) {
+        RandomAccessibleInterval<T> source = Views.zeroMin(image);
+        long[] dimensions = Intervals.dimensionsAsLongArray(image);
+        ImgFactory<FloatType> factory = Intervals.numElements(image) < Integer.MAX_VALUE
+                ? new ArrayImgFactory<>(new FloatType())
+                : new CellImgFactory<>(new FloatType());
+        Img<FloatType> edges = factory.create(dimensions);
+
+        // Une tranche de plans z par thread
+        int depth = (int) dimensions[2];
+        int numSlabs = Math.max(1, Math.min(depth, Runtime.getRuntime().availableProcessors()));
+        IntStream.range(0, numSlabs).parallel().forEach(s -> {
+            long zMin = (long) depth * s / numSlabs;
+            long zMax = (long) depth * (s + 1) / numSlabs - 1;
+            if (zMax >= zMin) {
+                gradientMagnitude(source, Views.interval(edges,
+                        new long[] {0, 0, zMin}, new long[] {dimensions[0] - 1, dimensions[1] - 1, zMax}));
+            }
+        });
+        return edges;
+    }
+
+    /**
+     * Calcule la norme du gradient de Sobel sur une région de l'image, plan z par plan z.
+     * Les voxels de la région situés sur le bord de l'image valent zéro.
+     *
+     * @param image L'image (x, y, z).
+     * @param target La région à calculer, dans les coordonnées de l'image.
+     */
+    public static <T extends RealType<T>> void gradientMagnitude(RandomAccessibleInterval<T> image, RandomAccessibleInterval<FloatType> target) {
+        RandomAccessible<T> extended = Views.extendZero(image);
+        long x0 = target.min(0), y0 = target.min(1);
+        int width = (int) target.dimension(0) + 2;
+        int height = (int) target.dimension(1) + 2;
+
+        // Trois plans de la région élargie d'un voxel (z - 1, z, z + 1), réutilisés en rotation
+        float[][] planes = new float[3][width * height];
+        float[] smoothedZ = new float[width * height];
+        float[] derivedZ = new float[width * height];
+        float[] a = new float[width];
+        float[] b = new float[width];
+        float[] c = new float[width];
+
+        readPlane(extended, x0 - 1, y0 - 1, target.min(2) - 1, width, height, planes[0]);
+        readPlane(extended, x0 - 1, y0 - 1, target.min(2), width, height, planes[1]);
+        for (long z = target.min(2); z <= target.max(2); z++) {
+            float[] previous = planes[(int) ((z - target.min(2)) % 3)];
+            float[] current = planes[(int) ((z - target.min(2) + 1) % 3)];
+            float[] next = planes[(int) ((z - target.min(2) + 2) % 3)];
+            readPlane(extended, x0 - 1, y0 - 1, z + 1, width, height, next);
+
+            // Lissage et dérivée selon z
+            for (int i = 0; i < width * height; i++) {
+                smoothedZ[i] = previous[i] + 2 * current[i] + next[i];
+                derivedZ[i] = next[i] - previous[i];
+            }
+
+            boolean zBorder = z == image.min(2) || z == image.max(2);
+            Cursor<FloatType> out = Views.flatIterable(Views.interval(target,
+                    new long[] {x0, y0, z}, new long[] {target.max(0), target.max(1), z})).cursor();
+            for (int j = 1; j < height - 1; j++) {
+                // Selon y : a = Sy(Sz), b = Dy(Sz), c = Sy(Dz)
+                int row = j * width;
+                for (int i = 0; i < width; i++) {
+                    a[i] = smoothedZ[row - width + i] + 2 * smoothedZ[row + i] + smoothedZ[row + width + i];
+                    b[i] = smoothedZ[row + width + i] - smoothedZ[row - width + i];
+                    c[i] = derivedZ[row - width + i] + 2 * derivedZ[row + i] + derivedZ[row + width + i];
+                }
+
+                // Selon x : gx = Dx(a), gy = Sx(b), gz = Sx(c)
+                long y = y0 + j - 1;
+                boolean yzBorder = zBorder || y == image.min(1) || y == image.max(1);
+                for (int i = 1; i < width - 1; i++) {
+                    long x = x0 + i - 1;
+                    FloatType value = out.next();
+                    if (yzBorder || x == image.min(0) || x == image.max(0)) {
+                        value.set(0);
+                        continue;
+                    }
+                    float gx = a[i + 1] - a[i - 1];
+                    float gy = b[i - 1] + 2 * b[i] + b[i + 1];
+                    float gz = c[i - 1] + 2 * c[i] + c[i + 1];
+                    value.set((float) Math.sqrt(gx * gx + gy * gy + gz * gz));
+                }
+            }
+        }
+    }
+
+    /**
+     * Copie un rectangle d'un plan z de l'image dans un tableau (x le plus rapide).
+     */
+    private static <T extends RealType<T>> void readPlane(RandomAccessible<T> image, long x, long y, long z,
+            int width, int height, float[] plane) {
+        Cursor<T> cursor = Views.flatIterable(Views.interval(image,
+                new long[] {x, y, z}, new long[] {x + width - 1, y + height - 1, z})).cursor();
+        for (int i = 0; i < plane.length; i++) {
+            plane[i] = cursor.next().getRealFloat();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.mycompany.imagej;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Cette classe extrait l'isosurface d'une image en ne polygonisant que les blocs qu'elle
+ * traverse.
+ *
+ * Une pyramide des minima et maxima des blocs est construite en une passe parallèle sur
+ * l'image ; elle est ensuite parcourue depuis son niveau le plus grossier, en écartant toute
+ * région dont l'intervalle [min, max] ne contient pas l'isovaleur. Seuls les blocs restants,
+ * sur la fine couche autour de la surface, sont polygonisés (en parallèle, chacun dans son
+ * propre tableau de sommets) : le coût de la polygonisation dépend de l'aire de la surface et
+ * non du volume. La pyramide peut être réutilisée pour plusieurs isovaleurs.
+ *
+ * Le résultat est identique à celui de {@link MarchingCubes#extract}, au regroupement près. Sur
+ * une petite image (au plus deux blocs par axe), la pyramide n'écarterait presque rien :
+ * {@link #extract(RandomAccessibleInterval, double)} polygonise alors directement toute l'image.
+ */
+public class SparseMarchingCubes {
+
+    /** La taille par défaut des blocs, en cubes. */
+    public static final int DEFAULT_BLOCK_SIZE = 16;
+
+    /** Le nombre de blocs par axe jusqu'auquel l'image est polygonisée sans pyramide. */
+    private static final int DENSE_BLOCKS = 2;
+
+    private final RandomAccessibleInterval<? extends RealType<?>> image;
+    private final int blockSize;
+    private final int[][] levelDimensions;
+    private final float[][] levelMin;
+    private final float[][] levelMax;
+
+    private <T extends RealType<T>> SparseMarchingCubes(RandomAccessibleInterval<T> image, int blockSize) {
+        this.image = image;
+        this.blockSize = blockSize;
+
+        // Niveau 0 : un bloc de cubes couvre blockSize + 1 voxels par axe (les blocs voisins
+        // partagent un plan de voxels)
+        int[] base = new int[3];
+        for (int d = 0; d < 3; d++) {
+            base[d] = (int) ((image.dimension(d) - 1 + blockSize - 1) / blockSize);
+        }
+        float[] baseMin = new float[base[0] * base[1] * base[2]];
+        float[] baseMax = new float[baseMin.length];
+        IntStream.range(0, baseMin.length).parallel().forEach(b -> {
+            Interval voxels = blockVoxels(b % base[0], b / base[0] % base[1], b / base[0] / base[1]);
+            float blockMin = Float.POSITIVE_INFINITY;
+            float blockMax = Float.NEGATIVE_INFINITY;
+            Cursor<T> cursor = Views.interval(image, voxels).cursor();
+            while (cursor.hasNext()) {
+                float value = cursor.next().getRealFloat();
+                blockMin = Math.min(blockMin, value);
+                blockMax = Math.max(blockMax, value);
+            }
+            baseMin[b] = blockMin;
+            baseMax[b] = blockMax;
+        });
+        List<int[]> dimensions = new ArrayList<>();
+        List<float[]> mins = new ArrayList<>();
+        List<float[]> maxs = new ArrayList<>();
+        dimensions.add(base);
+        mins.add(baseMin);
+        maxs.add(baseMax);
+
+        // Niveaux supérieurs : chaque nœud regroupe 2 x 2 x 2 nœuds du niveau inférieur
+        int[] blocks = base;
+        float[] min = baseMin;
+        float[] max = baseMax;
+        while (blocks[0] > 1 || blocks[1] > 1 || blocks[2] > 1) {
+            int[] child = blocks;
+            float[] childMin = min;
+            float[] childMax = max;
+            blocks = new int[] {(child[0] + 1) / 2, (child[1] + 1) / 2, (child[2] + 1) / 2};
+            min = new float[blocks[0] * blocks[1] * blocks[2]];
+            max = new float[min.length];
+            Arrays.fill(min, Float.POSITIVE_INFINITY);
+            Arrays.fill(max, Float.NEGATIVE_INFINITY);
+            for (int k = 0; k < child[2]; k++) {
+                for (int j = 0; j < child[1]; j++) {
+                    for (int i = 0; i < child[0]; i++) {
+                        int c = (k * child[1] + j) * child[0] + i;
+                        int p = (k / 2 * blocks[1] + j / 2) * blocks[0] + i / 2;
+                        min[p] = Math.min(min[p], childMin[c]);
+                        max[p] = Math.max(max[p], childMax[c]);
+                    }
+                }
+            }
+            dimensions.add(blocks);
+            mins.add(min);
+            maxs.add(max);
+        }
+        this.levelDimensions = dimensions.toArray(new int[0][]);
+        this.levelMin = mins.toArray(new float[0][]);
+        this.levelMax = maxs.toArray(new float[0][]);
+    }
+
+    /**
+     * Construit la pyramide des minima et maxima des blocs d'une image.
+     *
+     * @param image L'image (x, y, z).
+     * @param blockSize La taille des blocs, en cubes.
+     * @return L'extracteur, réutilisable pour plusieurs isovaleurs.
+     */
+    public static <T extends RealType<T>> SparseMarchingCubes index(RandomAccessibleInterval<T> image, int blockSize) {
+        if (image.dimension(0) < 2 || image.dimension(1) < 2 || image.dimension(2) < 2) {
+            throw new IllegalArgumentException("Image trop petite pour Marching Cubes : " + Intervals.numElements(image) + " voxels");
+        }
+        return new SparseMarchingCubes(image, blockSize);
+    }
+
+    /**
+     * Extrait l'isosurface d'une image, avec des blocs de taille par défaut ; une petite image est
+     * polygonisée directement par {@link MarchingCubes#extract}.
+     *
+     * @param image L'image (x, y, z).
+     * @param isovalue L'isovaleur.
+     * @return Les sommets des triangles (x, y, z consécutifs, 3 sommets par triangle), dans les
+     * coordonnées de l'image.
+     */
+    public static <T extends RealType<T>> float[] extract(RandomAccessibleInterval<T> image, double isovalue) {
+        if (image.dimension(0) < 2 || image.dimension(1) < 2 || image.dimension(2) < 2) {
+            return new float[0];
+        }
+        if (image.dimension(0) - 1 <= DENSE_BLOCKS * DEFAULT_BLOCK_SIZE
+                && image.dimension(1) - 1 <= DENSE_BLOCKS * DEFAULT_BLOCK_SIZE
+                && image.dimension(2) - 1 <= DENSE_BLOCKS * DEFAULT_BLOCK_SIZE) {
+            return MarchingCubes.extract(image, isovalue);
+        }
+        return index(image, DEFAULT_BLOCK_SIZE).extract(isovalue);
+    }
+
+    /**
+     * Extrait l'isosurface à une isovaleur.
+     *
+     * @param isovalue L'isovaleur.
+     * @return Les sommets des triangles (x, y, z consécutifs, 3 sommets par triangle), dans les
+     * coordonnées de l'image.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public float[] extract(double isovalue) {
+        int[] blocks = straddlingBlocks((float) isovalue);
+        int[] dimensions = levelDimensions[0];
+        List<MarchingCubes.FloatList> buffers = new ArrayList<>();
+        for (int i = 0; i < blocks.length; i++) {
+            buffers.add(new MarchingCubes.FloatList());
+        }
+        IntStream.range(0, blocks.length).parallel().forEach(i -> {
+            int b = blocks[i];
+            Interval voxels = blockVoxels(b % dimensions[0], b / dimensions[0] % dimensions[1], b / dimensions[0] / dimensions[1]);
+            Interval cubes = Intervals.createMinMax(voxels.min(0), voxels.min(1), voxels.min(2),
+                    voxels.max(0) - 1, voxels.max(1) - 1, voxels.max(2) - 1);
+            MarchingCubes.polygonize((RandomAccessibleInterval) image, cubes, isovalue, buffers.get(i));
+        });
+        return MarchingCubes.FloatList.concatenate(buffers);
+    }
+
+    /**
+     * Parcourt la pyramide depuis son sommet et renvoie les blocs du niveau 0 qui contiennent
+     * l'isovaleur (un coin au-dessus, un coin en dessous ou égal), dans l'ordre des indices.
+     */
+    private int[] straddlingBlocks(float isovalue) {
+        List<Integer> blocks = new ArrayList<>();
+        Deque<int[]> stack = new ArrayDeque<>();
+        int top = levelDimensions.length - 1;
+        for (int node = 0; node < levelMin[top].length; node++) {
+            stack.push(new int[] {top, node});
+        }
+        while (!stack.isEmpty()) {
+            int[] entry = stack.pop();
+            int level = entry[0];
+            int node = entry[1];
+            if (levelMax[level][node] <= isovalue || levelMin[level][node] > isovalue) {
+                continue;
+            }
+            if (level == 0) {
+                blocks.add(node);
+                continue;
+            }
+            int[] parent = levelDimensions[level];
+            int[] child = levelDimensions[level - 1];
+            int i = node % parent[0];
+            int j = node / parent[0] % parent[1];
+            int k = node / parent[0] / parent[1];
+            for (int dk = 0; dk < 2 && 2 * k + dk < child[2]; dk++) {
+                for (int dj = 0; dj < 2 && 2 * j + dj < child[1]; dj++) {
+                    for (int di = 0; di < 2 && 2 * i + di < child[0]; di++) {
+                        stack.push(new int[] {level - 1, ((2 * k + dk) * child[1] + 2 * j + dj) * child[0] + 2 * i + di});
+                    }
+                }
+            }
+        }
+        return blocks.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    /**
+     * Les voxels lus par un bloc : ses cubes et le plan de voxels qui les ferme sur chaque axe.
+     */
+    private Interval blockVoxels(int i, int j, int k) {
+        long[] min = new long[3];
+        long[] max = new long[3];
+        int[] position = new int[] {i, j, k};
+        for (int d = 0; d < 3; d++) {
+            min[d] = image.min(d) + (long) position[d] * blockSize;
+            max[d] = Math.min(min[d] + blockSize, image.max(d));
+        }
+        return Intervals.createMinMax(min[0], min[1], min[2], max[0], max[1], max[2]);
+    }
+}
@@ -0,0 +1,42 @@
+package com.mycompany.imagej;
+
+/**
+ * Index spatial d'un nuage de points, pour les recherches de voisins.
+ *
+ * Les requêtes n'allouent rien : les résultats sont écrits dans des tableaux fournis par
+ * l'appelant, qui peut les réutiliser d'une requête à l'autre. Un index est immuable après sa
+ * construction et peut être interrogé depuis plusieurs threads.
+ */
+public interface SpatialIndex {
+
+    /**
+     * @return Le nombre de points indexés.
+     */
+    int size();
+
+    /**
+     * Cherche les k plus proches voisins d'une position.
+     *
+     * @param x La position x.
+     * @param y La position y.
+     * @param z La position z.
+     * @param k Le nombre de voisins cherchés, au plus {@code indices.length}.
+     * @param indices Reçoit les indices des voisins dans le nuage, du plus proche au plus éloigné.
+     * @param squaredDistances Reçoit les carrés des distances aux voisins.
+     * @return Le nombre de voisins trouvés, min(k, {@link #size()}).
+     */
+    int nearestNeighbours(float x, float y, float z, int k, int[] indices, float[] squaredDistances);
+
+    /**
+     * Cherche les points situés à une distance inférieure ou égale à un rayon, dans un ordre
+     * quelconque.
+     *
+     * @param x La position x.
+     * @param y La position y.
+     * @param z La position z.
+     * @param radius Le rayon.
+     * @param indices Reçoit les indices des points trouvés, dans la limite de sa taille.
+     * @return Le nombre total de points trouvés, qui peut dépasser {@code indices.length}.
+     */
+    int radiusSearch(float x, float y, float z, float radius, int[] indices);
+}
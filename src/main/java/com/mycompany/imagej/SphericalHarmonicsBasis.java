@@ -0,0 +1,119 @@
+package com.mycompany.imagej;
+
+/**
+ * Évaluation de toutes les harmoniques sphériques réelles jusqu'à un degré L en un point, en
+ * O(L²) opérations.
+ *
+ * Les fonctions de Legendre associées normalisées sont obtenues par les récurrences stables en
+ * l (à m fixé) à partir de la diagonale P_m^m, et cos(mφ), sin(mφ) par la récurrence de
+ * Tchebychev ; les facteurs des récurrences sont précalculés à la construction. La valeur de
+ * Y_l^m est écrite à l'indice {@link #index(int, int)} = l² + l + m d'un tableau fourni par
+ * l'appelant.
+ *
+ * Les fonctions sont celles de {@link SphericalHarmonicsFunction#sphericalHarmonicY} (phase de
+ * Condon-Shortley) : la partie réelle pour m ≥ 0, la partie imaginaire pour m &lt; 0.
+ * Une instance est immuable et peut être partagée entre threads.
+ */
+public class SphericalHarmonicsBasis {
+
+    private final int degree;
+    /** Les facteurs de la diagonale : P_m^m = diagonal[m] * sin(θ) * P_{m-1}^{m-1}. */
+    private final double[] diagonal;
+    /** Les facteurs a et b de P_l^m = a * (cos(θ) * P_{l-1}^m - b * P_{l-2}^m), indexés par l * (l + 1) / 2 + m. */
+    private final double[] a;
+    private final double[] b;
+
+    /**
+     * @param degree Le degré maximal L.
+     */
+    public SphericalHarmonicsBasis(int degree) {
+        if (degree < 0) {
+            throw new IllegalArgumentException("Degré négatif : " + degree);
+        }
+        this.degree = degree;
+        diagonal = new double[degree + 1];
+        diagonal[0] = Math.sqrt(1 / (4 * Math.PI));
+        for (int m = 1; m <= degree; m++) {
+            diagonal[m] = -Math.sqrt((2 * m + 1) / (2.0 * m));
+        }
+        int size = (degree + 1) * (degree + 2) / 2;
+        a = new double[size];
+        b = new double[size];
+        for (int l = 1; l <= degree; l++) {
+            for (int m = 0; m < l; m++) {
+                int i = l * (l + 1) / 2 + m;
+                a[i] = Math.sqrt((4.0 * l * l - 1) / ((double) l * l - (double) m * m));
+                b[i] = l == m + 1 ? 0 : Math.sqrt(((l - 1.0) * (l - 1) - (double) m * m) / (4.0 * (l - 1) * (l - 1) - 1));
+            }
+        }
+    }
+
+    public int getDegree() {
+        return degree;
+    }
+
+    /**
+     * @return Le nombre de fonctions, (L + 1)².
+     */
+    public int size() {
+        return (degree + 1) * (degree + 1);
+    }
+
+    /**
+     * @return L'indice de Y_l^m dans les tableaux de valeurs.
+     */
+    public static int index(int l, int m) {
+        return l * l + l + m;
+    }
+
+    /**
+     * Évalue toutes les fonctions en un point.
+     *
+     * @param theta L'angle polaire.
+     * @param phi L'angle azimutal.
+     * @param values Le tableau des valeurs, d'au moins {@link #size()} éléments.
+     */
+    public void evaluate(double theta, double phi, double[] values) {
+        double x = Math.cos(theta);
+        double s = Math.sin(theta);
+        double c1 = Math.cos(phi);
+        double s1 = Math.sin(phi);
+
+        double pmm = diagonal[0];
+        // cos(mφ), sin(mφ) et leurs valeurs au rang précédent
+        double cm = 1, sm = 0;
+        double cPrevious = c1, sPrevious = -s1;
+        for (int m = 0; m <= degree; m++) {
+            if (m > 0) {
+                pmm *= diagonal[m] * s;
+                double c = 2 * c1 * cm - cPrevious;
+                double sn = 2 * c1 * sm - sPrevious;
+                cPrevious = cm;
+                sPrevious = sm;
+                cm = c;
+                sm = sn;
+            }
+            // Signe de la partie imaginaire de Y_l^{-m} : (-1)^(m+1)
+            double negativeSign = (m & 1) == 0 ? -1 : 1;
+
+            double p2 = 0;
+            double p1 = pmm;
+            for (int l = m; l <= degree; l++) {
+                double p;
+                if (l == m) {
+                    p = pmm;
+                } else {
+                    int i = l * (l + 1) / 2 + m;
+                    p = a[i] * (x * p1 - b[i] * p2);
+                    p2 = p1;
+                    p1 = p;
+                }
+                int center = l * l + l;
+                values[center + m] = p * cm;
+                if (m > 0) {
+                    values[center - m] = negativeSign * p * sm;
+                }
+            }
+        }
+    }
+}
@@ -1,136 +1,543 @@
 package com.mycompany.imagej;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 import javax.swing.JTextArea;
 
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
-import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.DecompositionSolver;
-import org.apache.commons.math3.linear.QRDecomposition;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.RealVector;
-import org.scijava.vecmath.Point3f;
-
 import ij.io.SaveDialog;
 
-
 public class SphericalHarmonicsExpansion {
+
+    /**
+     * Les méthodes de résolution des moindres carrés.
+     */
+    public enum FitMethod {
+        /** Factorisation QR de la matrice de conception N × (L + 1)², la plus stable. */
+        QR,
+        /**
+         * Équations normales accumulées par blocs de points en parallèle, puis factorisation de
+         * Cholesky : la mémoire est en O(L⁴), indépendante du nombre de points.
+         */
+        NORMAL_EQUATIONS,
+        /**
+         * Quadrature de Lebedev : les valeurs sont interpolées aux nœuds d'une grille de Lebedev,
+         * puis projetées sur chaque harmonique par la somme pondérée des nœuds, en O(N + nœuds × L²)
+         * sans factorisation. Le degré est limité par la grille (8 au plus).
+         */
+        LEBEDEV_QUADRATURE
+    }
+
+    /** Le nombre de points évalués ensemble lors de l'accumulation des équations normales. */
+    private static final int BLOCK_SIZE = 64;
+    /** Le nombre de points interpolés en chaque nœud de la quadrature de Lebedev. */
+    private static final int QUADRATURE_NEIGHBOURS = 4;
+
     private SphericalHarmonicsFunction xFitSph, yFitSph, zFitSph;
     private EllipsoidExpander ellipsoidExpander;
     private int maxDegree;
-    private List<Point3f> points;
+    private PointCloud points;
+    private PointCloud fittedPoints;
+    private FitMethod fitMethod = FitMethod.QR;
+    private double regularization = 0;
+    private LinearAlgebraBackend backend = LinearAlgebraBackend.COMMONS_MATH;
+    private LinearAlgebraBackend.Factorization factorization;
+    private int lebedevOrder = 0;
+    private int solverDegree;
+    private FitMethod solverMethod;
+    /** Les coordonnées elliptiques de la dernière factorisation des équations normales. */
+    private double[][] normalEquationCoordinates;
+    /** Les points et poids d'interpolation de chaque nœud de la quadrature, QUADRATURE_NEIGHBOURS par nœud. */
+    private int[] nodeNeighbours;
+    private double[] nodeWeights;
+    /** Les facteurs de projection de chaque nœud sur chaque harmonique, indexés par nœud * (L + 1)² + l² + l + m. */
+    private double[] nodeProjection;
 
-    public SphericalHarmonicsExpansion(List<Point3f> points, int maxDegree) {
+    public SphericalHarmonicsExpansion(PointCloud points, int maxDegree) {
         this.points = points;
         this.maxDegree = maxDegree;
         this.ellipsoidExpander = new EllipsoidExpander();
     }
 
-    public List<Point3f> expand() {
+    public EllipsoidExpander getEllipsoidExpander() {
+        return ellipsoidExpander;
+    }
+
+    public int getMaxDegree() {
+        return maxDegree;
+    }
+
+    public FitMethod getFitMethod() {
+        return fitMethod;
+    }
+
+    public void setFitMethod(FitMethod fitMethod) {
+        this.fitMethod = fitMethod;
+    }
+
+    public int getLebedevOrder() {
+        return lebedevOrder;
+    }
+
+    /**
+     * @param lebedevOrder Le nombre de nœuds de la grille de Lebedev (voir {@link LebedevGrid#getOrders()}),
+     * ou 0 pour la plus petite grille exacte au degré de l'ajustement.
+     */
+    public void setLebedevOrder(int lebedevOrder) {
+        this.lebedevOrder = lebedevOrder;
+    }
+
+    public LinearAlgebraBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * @param backend Les factorisations utilisées par l'ajustement, y compris celui de l'ellipsoïde.
+     */
+    public void setBackend(LinearAlgebraBackend backend) {
+        this.backend = backend;
+        ellipsoidExpander.setBackend(backend);
+    }
+
+    public double getRegularization() {
+        return regularization;
+    }
+
+    /**
+     * @param regularization Le poids de la régularisation de Tikhonov des équations normales :
+     * le coefficient de Y_l^m est pénalisé par regularization * l(l + 1) (valeur propre du
+     * laplacien sphérique), ce qui lisse les hauts degrés sans contraindre le terme l = 0.
+     * Ignoré par la méthode QR.
+     */
+    public void setRegularization(double regularization) {
+        this.regularization = regularization;
+    }
+
+    /**
+     * @return Les coefficients ajustés pour x, y et z, indexés par [coordonnée][l][m + maxDegree].
+     */
+    public double[][][] getCoefficients() {
+        return new double[][][] {
+            xFitSph.getCoefficients(), yFitSph.getCoefficients(), zFitSph.getCoefficients()
+        };
+    }
+
+    /**
+     * @return Les points ajustés lors du dernier appel à {@link #expand()}.
+     */
+    public PointCloud getFittedPoints() {
+        return fittedPoints;
+    }
+
+    /**
+     * Ajuste les harmoniques sphériques sur les points. Le nuage des points ajustés est réutilisé
+     * d'un appel à l'autre.
+     *
+     * @return Les points ajustés.
+     */
+    public PointCloud expand() {
         ellipsoidExpander.fit(points);
         double[][] ellipticalCoordinates = ellipsoidExpander.cartesianToElliptical(points, true);
 
-        double[] xValues = new double[points.size()];
-        double[] yValues = new double[points.size()];
-        double[] zValues = new double[points.size()];
+        int numPoints = points.size();
+        double[] xValues = new double[numPoints];
+        double[] yValues = new double[numPoints];
+        double[] zValues = new double[numPoints];
 
-        for (int i = 0; i < points.size(); i++) {
-            xValues[i] = points.get(i).x;
-            yValues[i] = points.get(i).y;
-            zValues[i] = points.get(i).z;
+        float[] px = points.getX();
+        float[] py = points.getY();
+        float[] pz = points.getZ();
+        for (int i = 0; i < numPoints; i++) {
+            xValues[i] = px[i];
+            yValues[i] = py[i];
+            zValues[i] = pz[i];
         }
         
-        // fit spherical harmonics for each coordinate 
-        double[][] coefficientsX = leastSquaresHarmonicFit(maxDegree, ellipticalCoordinates, xValues);
-        double[][] coefficientsY = leastSquaresHarmonicFit(maxDegree, ellipticalCoordinates, yValues);
-        double[][] coefficientsZ = leastSquaresHarmonicFit(maxDegree, ellipticalCoordinates, zValues);
+        // fit spherical harmonics for the three coordinates with a single factorization
+        factorize(maxDegree, ellipticalCoordinates);
+        double[][][] coefficients = solve(xValues, yValues, zValues);
 
         //create spherical harmonics function 
-        xFitSph = new SphericalHarmonicsFunction(coefficientsX, maxDegree);
-        yFitSph = new SphericalHarmonicsFunction(coefficientsY, maxDegree);
-        zFitSph = new SphericalHarmonicsFunction(coefficientsZ, maxDegree);
+        xFitSph = new SphericalHarmonicsFunction(coefficients[0], maxDegree);
+        yFitSph = new SphericalHarmonicsFunction(coefficients[1], maxDegree);
+        zFitSph = new SphericalHarmonicsFunction(coefficients[2], maxDegree);
 
         // evaluate spherical harmonics functions
-        List<Point3f> fittedPoints = new ArrayList<Point3f>();
-        for (int i = 0; i < points.size(); i++) {
-            double theta = ellipticalCoordinates[i][0];
-            double phi = ellipticalCoordinates[i][1];
-            double x = xFitSph.eval(theta, phi);
-            double y = yFitSph.eval(theta, phi);
-            double z = zFitSph.eval(theta, phi);
-            Point3f point = new Point3f((float)x, (float)y, (float)z);
-            fittedPoints.add(point);
+        if (fittedPoints == null) {
+            fittedPoints = new PointCloud(numPoints);
         }
+        fittedPoints.resize(numPoints);
+        evaluate(maxDegree, ellipticalCoordinates, coefficients, fittedPoints);
 
         return ellipsoidExpander.ellipticalToCartesian(fittedPoints, true);
     }
 
+    /**
+     * Évalue les trois séries ajustées en chaque point, par blocs de points en parallèle : seule
+     * une ligne de la matrice de conception est en mémoire par thread, quelle que soit la
+     * {@link FitMethod}.
+     *
+     * @param coefficients Les coefficients de x, y et z, indexés par [coordonnée][l][m + degree].
+     */
+    private static void evaluate(int degree, double[][] ellipticalCoordinates, double[][][] coefficients, PointCloud result) {
+        double[] U = ellipticalCoordinates[0];
+        double[] V = ellipticalCoordinates[1];
+        int numPoints = U.length;
+        SphericalHarmonicsBasis basis = new SphericalHarmonicsBasis(degree);
+        int size = basis.size();
+        // Coefficients dans l'ordre de la base, l² + l + m
+        double[][] columns = new double[3][size];
+        for (int k = 0; k < 3; k++) {
+            for (int l = 0; l <= degree; l++) {
+                for (int m = -l; m <= l; m++) {
+                    columns[k][SphericalHarmonicsBasis.index(l, m)] = coefficients[k][l][m + degree];
+                }
+            }
+        }
+        ThreadLocal<double[]> rows = ThreadLocal.withInitial(() -> new double[size]);
+        IntStream.range(0, (numPoints + BLOCK_SIZE - 1) / BLOCK_SIZE).parallel().forEach(block -> {
+            double[] row = rows.get();
+            for (int i = block * BLOCK_SIZE; i < Math.min(numPoints, (block + 1) * BLOCK_SIZE); i++) {
+                basis.evaluate(V[i], U[i], row);
+                double x = 0, y = 0, z = 0;
+                for (int p = 0; p < size; p++) {
+                    x += columns[0][p] * row[p];
+                    y += columns[1][p] * row[p];
+                    z += columns[2][p] * row[p];
+                }
+                result.set(i, (float) x, (float) y, (float) z);
+            }
+        });
+    }
 
+    /**
+     * Ajuste les harmoniques sphériques sur une seule série de valeurs.
+     *
+     * @param ellipticalCoordinates Les coordonnées elliptiques {U[], V[]} des points.
+     * @return Les coefficients, indexés par [l][m + fitDegree].
+     */
     public double[][] leastSquaresHarmonicFit(int fitDegree, double[][] ellipticalCoordinates, double[] values) {
-        int numPoints = ellipticalCoordinates.length;
-        RealMatrix designMatrix = new Array2DRowRealMatrix(numPoints, (fitDegree + 1) * (fitDegree + 1));
-        double[] U = new double[numPoints];
-        double[] V = new double[numPoints];
+        factorize(fitDegree, ellipticalCoordinates);
+        return solve(values)[0];
+    }
+
+    /**
+     * Construit la matrice de conception des points et la factorise (QR), ou, selon la
+     * {@link FitMethod}, accumule et factorise (Cholesky) ses équations normales, ou prépare
+     * l'interpolation aux nœuds de la quadrature. La factorisation est conservée : {@link #solve}
+     * ajuste ensuite autant de séries de valeurs que nécessaire sur ces points (coordonnées,
+     * résidus, rééchantillonnage bootstrap) sans la recalculer.
+     *
+     * Les harmoniques sont évaluées avec V pour angle polaire et U pour angle azimutal.
+     *
+     * @param fitDegree Le degré maximal.
+     * @param ellipticalCoordinates Les coordonnées elliptiques {U[], V[]} des points.
+     */
+    public void factorize(int fitDegree, double[][] ellipticalCoordinates) {
+        double[] U = ellipticalCoordinates[0];
+        double[] V = ellipticalCoordinates[1];
+        int numPoints = U.length;
+        SphericalHarmonicsBasis basis = new SphericalHarmonicsBasis(fitDegree);
+        solverDegree = fitDegree;
+        solverMethod = fitMethod;
+        normalEquationCoordinates = null;
+        if (fitMethod == FitMethod.NORMAL_EQUATIONS) {
+            factorizeNormalEquations(basis, U, V);
+            normalEquationCoordinates = ellipticalCoordinates;
+            return;
+        }
+        if (fitMethod == FitMethod.LEBEDEV_QUADRATURE) {
+            prepareQuadrature(basis, U, V);
+            return;
+        }
+        int size = basis.size();
+        double[] designMatrix = new double[numPoints * size];
+
+        // fill the design matrix (by columns) with spherical harmonics evaluated at each (U, V), column l² + l + m
+        ThreadLocal<double[]> rows = ThreadLocal.withInitial(() -> new double[size]);
+        IntStream.range(0, numPoints).parallel().forEach(i -> {
+            double[] row = rows.get();
+            basis.evaluate(V[i], U[i], row);
+            for (int j = 0; j < size; j++) {
+                designMatrix[j * numPoints + i] = row[j];
+            }
+        });
+
+        factorization = backend.qr(designMatrix, numPoints, size);
+    }
 
-        //extract U and V from sampleLocations
+    /**
+     * Accumule la matrice de Gram ΦᵀΦ de la matrice de conception sans la construire, ajoute
+     * la régularisation et la factorise.
+     */
+    private void factorizeNormalEquations(SphericalHarmonicsBasis basis, double[] U, double[] V) {
+        int size = basis.size();
+        // Le triangle supérieur par lignes est le triangle inférieur par colonnes
+        double[] gram = accumulate(basis, U, V, true, new double[0][])[0];
+        for (int i = 0; i < size; i++) {
+            int l = (int) Math.sqrt(i);
+            gram[i * size + i] += regularization * l * (l + 1);
+        }
+        factorization = backend.cholesky(gram, size);
+    }
+
+    /**
+     * Associe à chaque nœud de la grille de Lebedev les points dont la direction (sur la sphère
+     * des coordonnées elliptiques) est la plus proche, avec des poids inverses du carré de la
+     * distance, et précalcule la projection de chaque nœud sur chaque harmonique :
+     * w Y_lm(nœud) / Σ w Y_lm², la norme discrète tenant compte de la norme 1/2 des parties réelles
+     * et imaginaires.
+     */
+    private void prepareQuadrature(SphericalHarmonicsBasis basis, double[] U, double[] V) {
+        LebedevGrid grid = lebedevGrid(solverDegree, lebedevOrder);
+        int numPoints = U.length;
+        PointCloud directions = new PointCloud(numPoints);
         for (int i = 0; i < numPoints; i++) {
-            U[i] = ellipticalCoordinates[i][0];
-            V[i] = ellipticalCoordinates[i][1];
+            double sinV = Math.sin(V[i]);
+            directions.add((float) (sinV * Math.cos(U[i])), (float) (sinV * Math.sin(U[i])), (float) Math.cos(V[i]));
+        }
+        KdTree tree = new KdTree(directions);
+
+        int nodes = grid.size();
+        int size = basis.size();
+        nodeNeighbours = new int[nodes * QUADRATURE_NEIGHBOURS];
+        nodeWeights = new double[nodes * QUADRATURE_NEIGHBOURS];
+        nodeProjection = new double[nodes * size];
+        int[] indices = new int[QUADRATURE_NEIGHBOURS];
+        float[] squaredDistances = new float[QUADRATURE_NEIGHBOURS];
+        SphericalHarmonicsTable table = SphericalHarmonicsTable.get(solverDegree, grid);
+        double[] norms = new double[size];
+        for (int j = 0; j < nodes; j++) {
+            int found = tree.nearestNeighbours((float) grid.getX(j), (float) grid.getY(j), (float) grid.getZ(j),
+                    QUADRATURE_NEIGHBOURS, indices, squaredDistances);
+            double total = 0;
+            for (int k = 0; k < found; k++) {
+                double weight = squaredDistances[0] == 0 ? (k == 0 ? 1 : 0) : 1 / squaredDistances[k];
+                nodeNeighbours[j * QUADRATURE_NEIGHBOURS + k] = indices[k];
+                nodeWeights[j * QUADRATURE_NEIGHBOURS + k] = weight;
+                total += weight;
+            }
+            for (int k = 0; k < found; k++) {
+                nodeWeights[j * QUADRATURE_NEIGHBOURS + k] /= total;
+            }
+
+            for (int p = 0; p < size; p++) {
+                double value = table.get(j, p);
+                nodeProjection[j * size + p] = grid.getWeight(j) * value;
+                norms[p] += grid.getWeight(j) * value * value;
+            }
+        }
+        for (int j = 0; j < nodes; j++) {
+            for (int p = 0; p < size; p++) {
+                nodeProjection[j * size + p] /= norms[p];
+            }
+        }
+    }
+
+    /**
+     * Renvoie la grille de la quadrature de Lebedev d'un ajustement, en vérifiant qu'elle est
+     * exacte au degré demandé.
+     *
+     * @param degree Le degré de l'ajustement.
+     * @param order Le nombre de nœuds, ou 0 pour la plus petite grille exacte au degré.
+     * @return La grille.
+     * @throws IllegalArgumentException Si aucune grille disponible n'est exacte au degré.
+     */
+    public static LebedevGrid lebedevGrid(int degree, int order) {
+        LebedevGrid grid = order > 0 ? LebedevGrid.get(order) : LebedevGrid.forDegree(degree);
+        if (grid.getMaxDegree() < degree) {
+            throw new IllegalArgumentException("La grille de Lebedev de " + grid.size() + " nœuds est exacte jusqu'au degré "
+                    + grid.getMaxDegree() + ", pas " + degree);
+        }
+        return grid;
+    }
+
+    /**
+     * Interpole chaque série aux nœuds et la projette sur les harmoniques.
+     *
+     * @return Les coefficients, rangés par colonnes (une colonne par série).
+     */
+    private double[] quadrature(double[][] values) {
+        int size = (solverDegree + 1) * (solverDegree + 1);
+        int nodes = nodeProjection.length / size;
+        double[] coefficients = new double[size * values.length];
+        for (int s = 0; s < values.length; s++) {
+            double[] v = values[s];
+            for (int j = 0; j < nodes; j++) {
+                double value = 0;
+                for (int k = 0; k < QUADRATURE_NEIGHBOURS; k++) {
+                    value += nodeWeights[j * QUADRATURE_NEIGHBOURS + k] * v[nodeNeighbours[j * QUADRATURE_NEIGHBOURS + k]];
+                }
+                for (int p = 0; p < size; p++) {
+                    coefficients[s * size + p] += nodeProjection[j * size + p] * value;
+                }
+            }
         }
+        return coefficients;
+    }
+
+    /**
+     * Parcourt les points par blocs, en parallèle sur une tranche de points par cœur, et
+     * accumule la matrice de Gram (triangle supérieur, si demandée) et les seconds membres Φᵀv
+     * de chaque série. Chaque tranche a ses propres sommes partielles, additionnées à la fin.
+     *
+     * @return La matrice de Gram aplatie (ou null), suivie du second membre de chaque série.
+     */
+    private static double[][] accumulate(SphericalHarmonicsBasis basis, double[] U, double[] V, boolean gram, double[][] values) {
+        int numPoints = U.length;
+        int chunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), numPoints / BLOCK_SIZE));
+        return IntStream.range(0, chunks).parallel()
+                .mapToObj(c -> accumulateChunk(basis, U, V, gram, values,
+                        (int) ((long) numPoints * c / chunks), (int) ((long) numPoints * (c + 1) / chunks)))
+                .reduce((a, b) -> {
+                    for (int k = 0; k < a.length; k++) {
+                        if (a[k] != null) {
+                            for (int i = 0; i < a[k].length; i++) {
+                                a[k][i] += b[k][i];
+                            }
+                        }
+                    }
+                    return a;
+                }).get();
+    }
 
-        // fill the design matrix with spherical harmonics evaluated at each (U, V)
-        int colIndex = 0;
-        for (int n = 0; n <= fitDegree; n++) {
-            for (int m = -n; m <= n; m++) {
-                for (int i = 0; i < numPoints; i++) {
-                    Complex ylm = SphericalHarmonicsFunction.sphericalHarmonicY(n, m, U[i], V[i]);
-                    designMatrix.setEntry(i, colIndex, m >= 0 ? ylm.getReal() : ylm.getImaginary());
+    private static double[][] accumulateChunk(SphericalHarmonicsBasis basis, double[] U, double[] V, boolean gram,
+            double[][] values, int from, int to) {
+        int size = basis.size();
+        double[][] sums = new double[1 + values.length][];
+        sums[0] = gram ? new double[size * size] : null;
+        for (int k = 0; k < values.length; k++) {
+            sums[1 + k] = new double[size];
+        }
+        double[] row = new double[size];
+        // Bloc de la matrice de conception rangé par colonnes : block[j * BLOCK_SIZE + r]
+        double[] block = new double[BLOCK_SIZE * size];
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int count = Math.min(BLOCK_SIZE, to - start);
+            for (int r = 0; r < count; r++) {
+                basis.evaluate(V[start + r], U[start + r], row);
+                for (int j = 0; j < size; j++) {
+                    block[j * BLOCK_SIZE + r] = row[j];
+                }
+            }
+            if (gram) {
+                double[] g = sums[0];
+                for (int i = 0; i < size; i++) {
+                    int oi = i * BLOCK_SIZE;
+                    int j = i;
+                    // Quatre colonnes à la fois, pour réutiliser chaque valeur de la colonne i
+                    for (; j + 3 < size; j += 4) {
+                        int oj = j * BLOCK_SIZE;
+                        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+                        for (int r = 0; r < count; r++) {
+                            double bi = block[oi + r];
+                            s0 += bi * block[oj + r];
+                            s1 += bi * block[oj + BLOCK_SIZE + r];
+                            s2 += bi * block[oj + 2 * BLOCK_SIZE + r];
+                            s3 += bi * block[oj + 3 * BLOCK_SIZE + r];
+                        }
+                        g[i * size + j] += s0;
+                        g[i * size + j + 1] += s1;
+                        g[i * size + j + 2] += s2;
+                        g[i * size + j + 3] += s3;
+                    }
+                    for (; j < size; j++) {
+                        int oj = j * BLOCK_SIZE;
+                        double sum = 0;
+                        for (int r = 0; r < count; r++) {
+                            sum += block[oi + r] * block[oj + r];
+                        }
+                        g[i * size + j] += sum;
+                    }
+                }
+            }
+            for (int k = 0; k < values.length; k++) {
+                double[] v = values[k];
+                double[] rhs = sums[1 + k];
+                for (int j = 0; j < size; j++) {
+                    int oj = j * BLOCK_SIZE;
+                    double sum = 0;
+                    for (int r = 0; r < count; r++) {
+                        sum += block[oj + r] * v[start + r];
+                    }
+                    rhs[j] += sum;
                 }
-                colIndex++;
             }
         }
+        return sums;
+    }
+
+    /**
+     * Ajuste des séries de valeurs sur les points de la dernière factorisation, en une seule
+     * résolution pour toutes les séries.
+     *
+     * @param values Les valeurs de chaque série, une par point.
+     * @return Les coefficients de chaque série, indexés par [série][l][m + degré].
+     * @throws IllegalStateException Si {@link #factorize} n'a pas été appelée.
+     */
+    public double[][][] solve(double[]... values) {
+        if (solverMethod == null) {
+            throw new IllegalStateException("Aucune matrice de conception factorisée");
+        }
+        int size = (solverDegree + 1) * (solverDegree + 1);
+        double[] coefficients = solverMethod == FitMethod.LEBEDEV_QUADRATURE ? quadrature(values) : solveFactorized(values);
 
-        //least squares fitting
-        RealVector b = new ArrayRealVector(values);
-        DecompositionSolver solver = new QRDecomposition(designMatrix).getSolver();
-        RealVector coefficients = solver.solve(b);
-
-        //reshape coefficients into a matrix
-        double[][] coefMatrix = new double[fitDegree + 1][2 * fitDegree + 1];
-        colIndex = 0;
-        for (int n = 0; n <= fitDegree; n++) {
-            for (int m = -n; m <= n; m++) {
-                int rowIndex = n;
-                int colOffset = m + fitDegree;  
-                coefMatrix[rowIndex][colOffset] = coefficients.getEntry(colIndex);
-                colIndex++;
+        //reshape coefficients into a matrix per series
+        double[][][] coefMatrices = new double[values.length][solverDegree + 1][2 * solverDegree + 1];
+        for (int k = 0; k < values.length; k++) {
+            int colIndex = 0;
+            for (int n = 0; n <= solverDegree; n++) {
+                for (int m = -n; m <= n; m++) {
+                    coefMatrices[k][n][m + solverDegree] = coefficients[k * size + colIndex];
+                    colIndex++;
+                }
             }
         }
+        return coefMatrices;
+    }
 
-        return coefMatrix;
+    /**
+     * Résout avec la factorisation QR ou de Cholesky.
+     *
+     * @return Les coefficients, rangés par colonnes (une colonne par série).
+     */
+    private double[] solveFactorized(double[][] values) {
+        double[][] columns = values;
+        if (normalEquationCoordinates != null) {
+            // Seconds membres des équations normales, Φᵀv
+            double[][] sums = accumulate(new SphericalHarmonicsBasis(solverDegree),
+                    normalEquationCoordinates[0], normalEquationCoordinates[1], false, values);
+            columns = Arrays.copyOfRange(sums, 1, sums.length);
+        }
+        int rows = columns[0].length;
+        double[] b = new double[rows * values.length];
+        for (int k = 0; k < values.length; k++) {
+            System.arraycopy(columns[k], 0, b, k * rows, rows);
+        }
+        return factorization.solve(b, values.length);
     }
     
     
-    public static void printPoints3D1(List<Point3f> points3D) {
+    public static void printPoints3D1(PointCloud points3D) {
         System.out.println("Points 3D :");
-        for (Point3f point : points3D) {
-            System.out.println("(" + point.getX() + ", " + point.getY() + ", " + point.getZ() + ")");
+        for (int i = 0; i < points3D.size(); i++) {
+            System.out.println("(" + points3D.getX(i) + ", " + points3D.getY(i) + ", " + points3D.getZ(i) + ")");
         }
     }
     
-    public static void printPoints3D2(List<Point3f> points3D, JTextArea textArea) {
-        textArea.setText("Points 3D :\n");
-        for (Point3f point : points3D) {
-            textArea.append("(" + point.getX() + ", " + point.getY() + ", " + point.getZ() + ")\n");
+    public static void printPoints3D2(PointCloud points3D, JTextArea textArea) {
+        StringBuilder text = new StringBuilder("Points 3D :\n");
+        for (int i = 0; i < points3D.size(); i++) {
+            text.append('(').append(points3D.getX(i)).append(", ").append(points3D.getY(i)).append(", ").append(points3D.getZ(i)).append(")\n");
         }
+        textArea.setText(text.toString());
     }
     
-    public static void writePointsToCSV(List<Point3f> fittedPoints, List<Point3f> resampledPoints) {
+    public static void writePointsToCSV(PointCloud fittedPoints, PointCloud resampledPoints) {
     	
         SaveDialog sd = new SaveDialog("Enregistrer en tant que CSV", "points3D", ".csv");
         String directory = sd.getDirectory();
@@ -145,11 +552,11 @@ public class SphericalHarmonicsExpansion {
         writePointsToFile(resampledPoints, directory, fileName.replace(".csv", "_resampled.csv"));
     }
 
-    private static void writePointsToFile(List<Point3f> points, String directory, String fileName) {
+    static void writePointsToFile(PointCloud points, String directory, String fileName) {
         String csvFilename = directory + fileName;
-        try (FileWriter writer = new FileWriter(csvFilename)) {
-            for (Point3f point : points) {
-                writer.write(point.getX() + "," + point.getY() + "," + point.getZ() + "\n");
+        try (Writer writer = new BufferedWriter(new FileWriter(csvFilename))) {
+            for (int i = 0; i < points.size(); i++) {
+                writer.write(points.getX(i) + "," + points.getY(i) + "," + points.getZ(i) + "\n");
             }
             System.out.println("Les points ont été écrits dans le fichier " + csvFilename + " avec succès !");
         } catch (IOException e) {
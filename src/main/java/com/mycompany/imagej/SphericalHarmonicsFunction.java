@@ -11,28 +11,49 @@ public class SphericalHarmonicsFunction {
         this.sphDegree = degree;
     }
 
+    public double[][] getCoefficients() {
+        return sphCoefficients;
+    }
+
+    /**
+     * Évalue la fonction en un point ; pour de nombreux points, évaluer la base une fois par
+     * point avec {@link SphericalHarmonicsBasis} et appeler {@link #eval(double[])}.
+     */
     public double eval(double theta, double phi) {
+        SphericalHarmonicsBasis basis = new SphericalHarmonicsBasis(sphDegree);
+        double[] basisValues = new double[basis.size()];
+        basis.evaluate(theta, phi, basisValues);
+        return eval(basisValues);
+    }
+
+    /**
+     * Évalue la fonction à partir des valeurs des harmoniques sphériques en un point.
+     *
+     * @param basisValues Les valeurs remplies par {@link SphericalHarmonicsBasis#evaluate}, au
+     * moins jusqu'au degré de la fonction.
+     */
+    public double eval(double[] basisValues) {
         double sphValue = 0;
         for (int l = 0; l <= sphDegree; l++) {
+            double[] row = sphCoefficients[l];
+            int center = l * l + l;
             for (int m = -l; m <= l; m++) {
-                int index = m >= 0 ? m : -m;
-                Complex ylm = sphericalHarmonicY(l, m, theta, phi);
-                if (m >= 0) {
-                    sphValue += sphCoefficients[l][index] * ylm.getReal();  
-                } else {
-                    sphValue += sphCoefficients[l][index] * ylm.getImaginary();
-                }
+                sphValue += row[m + sphDegree] * basisValues[center + m];
             }
         }
         return sphValue;
     }
-    
-    
-    
+
     public static double legendreP(int l, double x) {
         if (l == 0) return 1;
-        if (l == 1) return x;
-        return ((2 * l - 1) * x * legendreP(l - 1, x) - (l - 1) * legendreP(l - 2, x)) / l;
+        double previous = 1;
+        double current = x;
+        for (int ll = 2; ll <= l; ll++) {
+            double next = ((2 * ll - 1) * x * current - (ll - 1) * previous) / ll;
+            previous = current;
+            current = next;
+        }
+        return current;
     }
 
     public static double legendreP(int l, int m, double x) {
@@ -53,12 +74,8 @@ public class SphericalHarmonicsFunction {
             pmm *= (-fact) * somx2;
             fact += 2.0;
         }
-        if (l == m) return pmm;
-
         double pmmp1 = x * (2 * m + 1) * pmm;
-        if (l == m + 1) return pmmp1;
-
-        double pll = 0;
+        double pll = l == m ? pmm : pmmp1;
         for (int ll = m + 2; ll <= l; ++ll) {
             pll = ((2 * ll - 1) * x * pmmp1 - (ll + m - 1) * pmm) / (ll - m);
             pmm = pmmp1;
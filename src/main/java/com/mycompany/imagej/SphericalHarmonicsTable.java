@@ -0,0 +1,80 @@
+package com.mycompany.imagej;
+
+import java.util.Arrays;
+
+/**
+ * Table des valeurs de toutes les harmoniques sphériques jusqu'à un degré aux nœuds d'une grille
+ * de Lebedev, rangée par colonnes (la valeur de Y_l^m au nœud i est en
+ * {@code (l² + l + m) * size() + i}).
+ *
+ * Les nœuds d'une grille ne dépendent pas des points ajustés : toutes les gouttelettes d'un lot
+ * ajustées au même degré partagent la même table. Les tables sont conservées dans un cache
+ * partagé entre threads, borné en mémoire et évincé du moins récemment utilisé
+ * ({@link StageCache}), indexé par le degré et la grille (une instance par ordre). Une table est
+ * immuable.
+ */
+public class SphericalHarmonicsTable {
+
+    /** Le cache des tables, partagé par tous les ajustements. */
+    private static final StageCache TABLES = StageCache.withHeapFraction(0.01);
+
+    private final int size;
+    private final double[] values;
+
+    private SphericalHarmonicsTable(int size, double[] values) {
+        this.size = size;
+        this.values = values;
+    }
+
+    /**
+     * Renvoie la table des nœuds d'une grille de Lebedev, depuis le cache si elle a déjà été calculée.
+     *
+     * @param degree Le degré maximal.
+     * @param grid La grille.
+     * @return La table.
+     */
+    public static SphericalHarmonicsTable get(int degree, LebedevGrid grid) {
+        return TABLES.getOrCompute(Arrays.asList(degree, grid), () -> compute(degree, grid),
+                SphericalHarmonicsTable::estimateMemory);
+    }
+
+    /**
+     * Calcule la table des nœuds d'une grille de Lebedev, sans passer par le cache.
+     */
+    static SphericalHarmonicsTable compute(int degree, LebedevGrid grid) {
+        SphericalHarmonicsBasis basis = new SphericalHarmonicsBasis(degree);
+        int numFunctions = basis.size();
+        int size = grid.size();
+        double[] values = new double[numFunctions * size];
+        double[] row = new double[numFunctions];
+        for (int i = 0; i < size; i++) {
+            basis.evaluate(grid.getTheta(i), grid.getPhi(i), row);
+            for (int p = 0; p < numFunctions; p++) {
+                values[p * size + i] = row[p];
+            }
+        }
+        return new SphericalHarmonicsTable(size, values);
+    }
+
+    /**
+     * @return Le nombre de nœuds.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return La valeur de la fonction d'indice {@link SphericalHarmonicsBasis#index(int, int)} au nœud i.
+     */
+    public double get(int i, int function) {
+        return values[function * size + i];
+    }
+
+    /**
+     * @return La taille estimée (en octets) de la table ; la clé (la grille) est partagée et n'est
+     * pas comptée.
+     */
+    public long estimateMemory() {
+        return 8L * values.length;
+    }
+}
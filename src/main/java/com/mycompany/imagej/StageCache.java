@@ -0,0 +1,111 @@
+package com.mycompany.imagej;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Cache des résultats des étapes de la chaîne de traitement.
+ *
+ * Chaque résultat est indexé par une clé qui décrit ses entrées et ses paramètres : si
+ * seul un paramètre d'une étape change, seules cette étape et les suivantes sont recalculées.
+ * Les entrées les moins récemment utilisées sont évincées dès que la taille estimée des
+ * résultats conservés dépasse le budget mémoire.
+ *
+ * Les méthodes peuvent être appelées depuis plusieurs threads.
+ */
+public class StageCache {
+
+    private final long memoryBudget;
+    private long usedMemory = 0;
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param memoryBudget La taille totale (en octets) des résultats conservés.
+     */
+    public StageCache(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Crée un cache dont le budget est une fraction de la mémoire maximale de la JVM.
+     *
+     * @param fraction La fraction de la mémoire maximale, entre 0 et 1.
+     * @return Le cache.
+     */
+    public static StageCache withHeapFraction(double fraction) {
+        return new StageCache((long) (Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+    /**
+     * Renvoie le résultat associé à la clé, en le calculant s'il n'est pas dans le cache.
+     *
+     * @param key La clé de l'étape (entrées et paramètres).
+     * @param stage Le calcul de l'étape.
+     * @param sizeEstimate L'estimation de la taille (en octets) du résultat.
+     * @return Le résultat de l'étape.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V getOrCompute(Object key, Supplier<V> stage, ToLongFunction<V> sizeEstimate) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                return (V) entry.value;
+            }
+        }
+
+        // Le calcul est fait hors du verrou pour ne pas bloquer les autres threads
+        V value = stage.get();
+        put(key, value, sizeEstimate.applyAsLong(value));
+        return value;
+    }
+
+    private synchronized void put(Object key, Object value, long size) {
+        if (size > memoryBudget) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(value, size));
+        if (previous != null) {
+            usedMemory -= previous.size;
+        }
+        usedMemory += size;
+
+        // Eviction des entrées les moins récemment utilisées
+        Iterator<Map.Entry<Object, Entry>> it = entries.entrySet().iterator();
+        while (usedMemory > memoryBudget && it.hasNext()) {
+            Map.Entry<Object, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            usedMemory -= eldest.getValue().size;
+            it.remove();
+        }
+    }
+
+    /**
+     * Vide le cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        usedMemory = 0;
+    }
+
+    /**
+     * @return La taille estimée (en octets) des résultats conservés.
+     */
+    public synchronized long getUsedMemory() {
+        return usedMemory;
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long size;
+
+        private Entry(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.mycompany.imagej;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Cette classe affine la position des points de la surface sur l'image, comme l'étape
+ * {@code trace_refinement_of_surface} de napari-stress (Surface_reconstruction.ipynb).
+ *
+ * Pour chaque point, un profil d'intensité est échantillonné (interpolation linéaire) le long de
+ * la normale, sur une longueur {@code traceLength} centrée sur le point ; le point est déplacé
+ * à la position du bord (plus forte décroissance vers l'extérieur) ou du pic du profil, affinée
+ * entre deux échantillons par une parabole. Les normales sont estimées par analyse en composantes
+ * principales des plus proches voisins ({@link KdTree}) et orientées vers l'extérieur. Les points
+ * dont le déplacement sort de [Q1 - t * IQR, Q3 + t * IQR] sont rejetés, comme dans napari-stress.
+ *
+ * Les rayons sont traités en parallèle (fork-join) ; chaque thread réutilise ses tampons.
+ */
+public class SurfaceRefiner {
+
+    /**
+     * La position recherchée sur chaque profil.
+     */
+    public enum ProfileFit {
+        /** Le bord : la plus forte décroissance vers l'extérieur (image en intensité). */
+        EDGE,
+        /** Le maximum du profil (norme du gradient). */
+        PEAK
+    }
+
+    /** Le nombre de voisins utilisés pour estimer les normales. */
+    private static final int NORMAL_NEIGHBOURS = 10;
+    /** Le nombre de rayons en dessous duquel un intervalle est traité sans parallélisme. */
+    private static final int LEAF_SIZE = 64;
+
+    private static final ThreadLocal<float[]> PROFILE = ThreadLocal.withInitial(() -> new float[0]);
+    private static final ThreadLocal<int[]> NEIGHBOURS = ThreadLocal.withInitial(() -> new int[NORMAL_NEIGHBOURS]);
+    private static final ThreadLocal<float[]> DISTANCES = ThreadLocal.withInitial(() -> new float[NORMAL_NEIGHBOURS]);
+
+    /**
+     * Affine les points de la surface.
+     *
+     * @param image L'image sur laquelle les profils sont échantillonnés (x, y, z).
+     * @param scale L'échelle (x, y, z) des coordonnées des points par rapport aux voxels de l'image.
+     * @param offset La position (x, y, z) du voxel d'origine de l'image, dans les coordonnées des points.
+     * @param points Les points de la surface.
+     * @param traceLength La longueur des profils, dans les coordonnées des points.
+     * @param samplingDistance La distance entre les échantillons d'un profil.
+     * @param fit La position recherchée sur les profils.
+     * @param outlierTolerance Le facteur t de l'écart interquartile au-delà duquel un point est rejeté.
+     * @return Les points affinés, dans l'ordre, sans les points rejetés.
+     */
+    public static <T extends RealType<T>> PointCloud refine(RandomAccessibleInterval<T> image, double[] scale, double[] offset,
+            PointCloud points, double traceLength, double samplingDistance, ProfileFit fit, double outlierTolerance) {
+        int n = points.size();
+        if (n == 0) {
+            return new PointCloud(0);
+        }
+        RealRandomAccessible<T> interpolated = Views.interpolate(Views.extendBorder(image), new NLinearInterpolatorFactory<>());
+        int samples = Math.max(3, (int) (traceLength / samplingDistance) + 1);
+
+        // Normales (x, y, z) et déplacement le long de la normale de chaque point
+        float[][] normals = new float[3][n];
+        float[] displacements = new float[n];
+        KdTree tree = new KdTree(points);
+        float[] center = centroid(points);
+        ForkJoinPool.commonPool().invoke(new Trace(interpolated, scale, offset, points, tree, center,
+                normals, displacements, samples, traceLength, fit, 0, n));
+
+        // Rejet des déplacements hors de l'intervalle interquartile élargi
+        float[] valid = new float[n];
+        int numValid = 0;
+        for (float displacement : displacements) {
+            if (!Float.isNaN(displacement)) {
+                valid[numValid++] = displacement;
+            }
+        }
+        Arrays.sort(valid, 0, numValid);
+        double q1 = quantile(valid, numValid, 0.25);
+        double q3 = quantile(valid, numValid, 0.75);
+        double low = q1 - outlierTolerance * (q3 - q1);
+        double high = q3 + outlierTolerance * (q3 - q1);
+
+        PointCloud refined = new PointCloud(numValid);
+        for (int i = 0; i < n; i++) {
+            float t = displacements[i];
+            if (!Float.isNaN(t) && t >= low && t <= high) {
+                refined.add(points.getX(i) + t * normals[0][i], points.getY(i) + t * normals[1][i], points.getZ(i) + t * normals[2][i]);
+            }
+        }
+        return refined;
+    }
+
+    /**
+     * Estime les normales et trace les profils d'un intervalle de points.
+     */
+    private static class Trace extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RealRandomAccessible<? extends RealType<?>> image;
+        private final double[] scale;
+        private final double[] offset;
+        private final PointCloud points;
+        private final KdTree tree;
+        private final float[] center;
+        private final float[][] normals;
+        private final float[] displacements;
+        private final int samples;
+        private final double traceLength;
+        private final ProfileFit fit;
+        private final int lo;
+        private final int hi;
+
+        Trace(RealRandomAccessible<? extends RealType<?>> image, double[] scale, double[] offset, PointCloud points,
+                KdTree tree, float[] center, float[][] normals, float[] displacements, int samples, double traceLength,
+                ProfileFit fit, int lo, int hi) {
+            this.image = image;
+            this.scale = scale;
+            this.offset = offset;
+            this.points = points;
+            this.tree = tree;
+            this.center = center;
+            this.normals = normals;
+            this.displacements = displacements;
+            this.samples = samples;
+            this.traceLength = traceLength;
+            this.fit = fit;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > LEAF_SIZE) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Trace(image, scale, offset, points, tree, center, normals, displacements, samples, traceLength, fit, lo, mid),
+                        new Trace(image, scale, offset, points, tree, center, normals, displacements, samples, traceLength, fit, mid, hi));
+                return;
+            }
+            RealRandomAccess<? extends RealType<?>> access = image.realRandomAccess();
+            float[] profile = PROFILE.get();
+            if (profile.length < samples) {
+                profile = new float[samples];
+                PROFILE.set(profile);
+            }
+            int[] neighbours = NEIGHBOURS.get();
+            float[] distances = DISTANCES.get();
+            double step = traceLength / (samples - 1);
+
+            for (int i = lo; i < hi; i++) {
+                float px = points.getX(i);
+                float py = points.getY(i);
+                float pz = points.getZ(i);
+                int found = tree.nearestNeighbours(px, py, pz, NORMAL_NEIGHBOURS, neighbours, distances);
+                if (!estimateNormal(i, px, py, pz, neighbours, found)) {
+                    displacements[i] = Float.NaN;
+                    continue;
+                }
+                float nx = normals[0][i];
+                float ny = normals[1][i];
+                float nz = normals[2][i];
+
+                for (int s = 0; s < samples; s++) {
+                    double t = -traceLength / 2 + s * step;
+                    access.setPosition((px + t * nx - offset[0]) / scale[0], 0);
+                    access.setPosition((py + t * ny - offset[1]) / scale[1], 1);
+                    access.setPosition((pz + t * nz - offset[2]) / scale[2], 2);
+                    profile[s] = access.get().getRealFloat();
+                }
+                double position = fitProfile(profile, samples, fit);
+                displacements[i] = Double.isNaN(position) ? Float.NaN : (float) (-traceLength / 2 + position * step);
+            }
+        }
+
+        /**
+         * Normale d'un point : direction de plus faible variance de ses voisins (plus petit vecteur
+         * propre de leur covariance), orientée à l'opposé du centre du nuage.
+         */
+        private boolean estimateNormal(int i, float px, float py, float pz, int[] neighbours, int found) {
+            if (found < 3) {
+                return false;
+            }
+            double mx = 0, my = 0, mz = 0;
+            for (int k = 0; k < found; k++) {
+                mx += points.getX(neighbours[k]);
+                my += points.getY(neighbours[k]);
+                mz += points.getZ(neighbours[k]);
+            }
+            mx /= found;
+            my /= found;
+            mz /= found;
+            double cxx = 0, cxy = 0, cxz = 0, cyy = 0, cyz = 0, czz = 0;
+            for (int k = 0; k < found; k++) {
+                double dx = points.getX(neighbours[k]) - mx;
+                double dy = points.getY(neighbours[k]) - my;
+                double dz = points.getZ(neighbours[k]) - mz;
+                cxx += dx * dx;
+                cxy += dx * dy;
+                cxz += dx * dz;
+                cyy += dy * dy;
+                cyz += dy * dz;
+                czz += dz * dz;
+            }
+
+            // Plus petite valeur propre (méthode trigonométrique pour les matrices symétriques 3 x 3)
+            double p1 = cxy * cxy + cxz * cxz + cyz * cyz;
+            double q = (cxx + cyy + czz) / 3;
+            double p = Math.sqrt(((cxx - q) * (cxx - q) + (cyy - q) * (cyy - q) + (czz - q) * (czz - q) + 2 * p1) / 6);
+            if (p == 0) {
+                return false;
+            }
+            double bxx = (cxx - q) / p, byy = (cyy - q) / p, bzz = (czz - q) / p;
+            double bxy = cxy / p, bxz = cxz / p, byz = cyz / p;
+            double r = (bxx * (byy * bzz - byz * byz) - bxy * (bxy * bzz - byz * bxz) + bxz * (bxy * byz - byy * bxz)) / 2;
+            double phi = Math.acos(Math.max(-1, Math.min(1, r))) / 3;
+            double lambda = q + 2 * p * Math.cos(phi + 2 * Math.PI / 3);
+
+            // Vecteur propre : le plus long produit vectoriel de deux lignes de C - lambda I
+            double axx = cxx - lambda, ayy = cyy - lambda, azz = czz - lambda;
+            double x0 = cxy * cyz - cxz * ayy, y0 = cxz * cxy - axx * cyz, z0 = axx * ayy - cxy * cxy;
+            double x1 = ayy * azz - cyz * cyz, y1 = cyz * cxz - cxy * azz, z1 = cxy * cyz - ayy * cxz;
+            double x2 = cyz * cxz - azz * cxy, y2 = azz * axx - cxz * cxz, z2 = cxz * cxy - cyz * axx;
+            double n0 = x0 * x0 + y0 * y0 + z0 * z0;
+            double n1 = x1 * x1 + y1 * y1 + z1 * z1;
+            double n2 = x2 * x2 + y2 * y2 + z2 * z2;
+            double bx = x0, by = y0, bz = z0, bestNorm = n0;
+            if (n1 > bestNorm) {
+                bx = x1; by = y1; bz = z1; bestNorm = n1;
+            }
+            if (n2 > bestNorm) {
+                bx = x2; by = y2; bz = z2; bestNorm = n2;
+            }
+            if (bestNorm == 0) {
+                return false;
+            }
+            double length = Math.sqrt(bestNorm);
+            if (bx * (px - center[0]) + by * (py - center[1]) + bz * (pz - center[2]) < 0) {
+                length = -length;
+            }
+            normals[0][i] = (float) (bx / length);
+            normals[1][i] = (float) (by / length);
+            normals[2][i] = (float) (bz / length);
+            return true;
+        }
+    }
+
+    /**
+     * Cherche la position du bord ou du pic sur un profil.
+     *
+     * @return La position, en échantillons (affinée par une parabole), ou NaN si le profil est plat.
+     */
+    static double fitProfile(float[] profile, int samples, ProfileFit fit) {
+        int best = -1;
+        double bestValue = 0;
+        for (int s = 1; s < samples - 1; s++) {
+            double value = score(profile, s, fit);
+            if (best < 0 || value > bestValue) {
+                best = s;
+                bestValue = value;
+            }
+        }
+        double floor = fit == ProfileFit.EDGE ? 0 : Math.min(profile[0], profile[samples - 1]);
+        if (best < 0 || !(bestValue > floor)) {
+            return Double.NaN;
+        }
+        if (best < 2 || best > samples - 3) {
+            return best;
+        }
+        double before = score(profile, best - 1, fit);
+        double after = score(profile, best + 1, fit);
+        double curvature = before - 2 * bestValue + after;
+        return curvature < 0 ? best + 0.5 * (before - after) / curvature : best;
+    }
+
+    /**
+     * La valeur maximisée en un échantillon : la décroissance (centrée) vers l'extérieur pour un
+     * bord, l'intensité pour un pic.
+     */
+    private static double score(float[] profile, int s, ProfileFit fit) {
+        return fit == ProfileFit.EDGE ? (profile[s - 1] - profile[s + 1]) / 2.0 : profile[s];
+    }
+
+    /**
+     * Quantile d'un tableau trié, par interpolation linéaire entre les rangs (comme numpy).
+     */
+    private static double quantile(float[] sorted, int size, double q) {
+        if (size == 0) {
+            return Double.NaN;
+        }
+        double rank = q * (size - 1);
+        int below = (int) Math.floor(rank);
+        int above = Math.min(size - 1, below + 1);
+        return sorted[below] + (rank - below) * (sorted[above] - sorted[below]);
+    }
+
+    private static float[] centroid(PointCloud points) {
+        double sx = 0, sy = 0, sz = 0;
+        for (int i = 0; i < points.size(); i++) {
+            sx += points.getX(i);
+            sy += points.getY(i);
+            sz += points.getZ(i);
+        }
+        int n = points.size();
+        return new float[] {(float) (sx / n), (float) (sy / n), (float) (sz / n)};
+    }
+}
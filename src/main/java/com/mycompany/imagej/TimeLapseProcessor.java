@@ -0,0 +1,150 @@
+package com.mycompany.imagej;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ij.ImagePlus;
+import ij.plugin.Duplicator;
+
+/**
+ * Traitement d'une série temporelle (4D) temps par temps.
+ *
+ * Les étapes sont enchaînées en flux : pendant que le temps t est maillé et ajusté par le thread
+ * appelant, un second thread charge et filtre le temps t + 1. Les deux étapes communiquent par
+ * une file bornée, si bien que le nombre de temps en mémoire ne dépend pas de la longueur de la
+ * série lorsque la pile est ouverte en mode virtuel.
+ *
+ * Le résultat est une table CSV avec une ligne par temps : le numéro du temps puis les
+ * coefficients des harmoniques sphériques de x, y et z.
+ */
+public class TimeLapseProcessor {
+
+    // Nombre de temps filtrés en attente d'être maillés
+    private static final int QUEUE_CAPACITY = 2;
+
+    private final DropletPipeline pipeline;
+
+    /**
+     * @param pipeline La chaîne de traitement appliquée à chaque temps.
+     */
+    public TimeLapseProcessor(DropletPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Traite tous les temps d'une série et écrit la table des coefficients.
+     *
+     * @param movie La série temporelle (de préférence ouverte en pile virtuelle).
+     * @param settings Le contexte portant les paramètres, copié pour chaque temps.
+     * @param output La destination de la table des coefficients.
+     * @throws IOException Si l'écriture de la table échoue.
+     * @throws InterruptedException Si le thread est interrompu pendant le traitement.
+     */
+    public void process(ImagePlus movie, PipelineContext settings, Writer output) throws IOException, InterruptedException {
+        int nFrames = movie.getNFrames();
+        BlockingQueue<Frame> filtered = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        // Étape 1 : chargement et filtrage, un temps d'avance sur l'étape 2 (thread démon : il
+        // ne retient pas la JVM si l'étape 2 s'arrête sans vider la file)
+        ExecutorService loader = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "time-lapse-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Future<?> loading = loader.submit(() -> {
+            try {
+                for (int t = 1; t <= nFrames; t++) {
+                    ImagePlus frame = extractFrame(movie, t);
+                    PipelineContext context = settings.createChildContext();
+                    pipeline.binarize(frame, context);
+                    filtered.put(new Frame(t, context));
+                }
+            } catch (InterruptedException e) {
+                // L'étape 2 s'est arrêtée (shutdownNow) : plus personne n'attend le marqueur de fin
+                return null;
+            } catch (RuntimeException | Error e) {
+                // Le marqueur de fin débloque l'étape 2, qui relance l'erreur
+                filtered.put(Frame.END);
+                throw e;
+            }
+            filtered.put(Frame.END);
+            return null;
+        });
+        loader.shutdown();
+
+        // Étape 2 : les étapes suivantes de DropletPipeline#run, du maillage à l'ajustement
+        try {
+            writeHeader(output, settings.getMaxDegree());
+            for (Frame frame = filtered.take(); frame != Frame.END; frame = filtered.take()) {
+                PipelineContext context = frame.context;
+                PointCloud meshPoints = pipeline.marchingCubes(context.getBinarizedImage(), context);
+                context.setBinarizedImage(null);
+                PointCloud smoothedPoints = pipeline.smooth(meshPoints, context);
+                PointCloud resampledPoints = pipeline.resample(smoothedPoints, context);
+                PointCloud refinedPoints = pipeline.refine(resampledPoints, context);
+                PointCloud filteredPoints = pipeline.removeOutliers(refinedPoints, context);
+                pipeline.fitSphericalHarmonics(filteredPoints, context);
+                writeRow(output, frame.index, context.getSphericalHarmonics());
+                settings.setProgress(100 * frame.index / nFrames);
+            }
+            output.flush();
+            loading.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Erreur lors du filtrage de la série temporelle", e.getCause());
+        } finally {
+            loader.shutdownNow();
+        }
+    }
+
+    /**
+     * Extrait un temps de la série (premier canal, tous les plans z) ; seuls les plans de ce
+     * temps sont lus lorsque la pile est virtuelle.
+     */
+    private static ImagePlus extractFrame(ImagePlus movie, int frame) {
+        return new Duplicator().run(movie, 1, 1, 1, movie.getNSlices(), frame, frame);
+    }
+
+    private static void writeHeader(Writer output, int maxDegree) throws IOException {
+        StringBuilder header = new StringBuilder("frame");
+        for (String coordinate : new String[] {"x", "y", "z"}) {
+            for (int l = 0; l <= maxDegree; l++) {
+                for (int m = -l; m <= l; m++) {
+                    header.append(',').append(coordinate).append('_').append(l).append('_').append(m);
+                }
+            }
+        }
+        output.write(header.append('\n').toString());
+    }
+
+    private static void writeRow(Writer output, int frame, SphericalHarmonicsExpansion expansion) throws IOException {
+        int maxDegree = expansion.getMaxDegree();
+        StringBuilder row = new StringBuilder(Integer.toString(frame));
+        for (double[][] coefficients : expansion.getCoefficients()) {
+            for (int l = 0; l <= maxDegree; l++) {
+                for (int m = -l; m <= l; m++) {
+                    row.append(',').append(String.format(Locale.US, "%.6g", coefficients[l][m + maxDegree]));
+                }
+            }
+        }
+        output.write(row.append('\n').toString());
+    }
+
+    private static class Frame {
+        private static final Frame END = new Frame(0, null);
+
+        private final int index;
+        private final PipelineContext context;
+
+        private Frame(int index, PipelineContext context) {
+            this.index = index;
+            this.context = context;
+        }
+    }
+}
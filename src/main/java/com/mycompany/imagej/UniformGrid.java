@@ -0,0 +1,185 @@
+package com.mycompany.imagej;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Grille uniforme hachée sur des tableaux primitifs.
+ *
+ * L'espace est découpé en cubes de côté fixe ; chaque cube est haché vers une case d'une table
+ * dont la taille ne dépend que du nombre de points (pas de l'étendue du nuage). Les points sont
+ * triés par case (format CSR) avec des coordonnées permutées contiguës. Deux cubes peuvent
+ * partager une case : les requêtes vérifient le cube de chaque point. La grille convient aux
+ * recherches dans un rayon de l'ordre du côté des cubes.
+ */
+public class UniformGrid implements SpatialIndex {
+
+    private final float cellSize;
+    private final int mask;
+    private final int[] offsets;
+    private final int[] permutation;
+    private final float[][] coordinates;
+    private final int[] minCell;
+    private final int[] maxCell;
+
+    /**
+     * Construit la grille d'un nuage de points ; le nuage n'est pas modifié.
+     *
+     * @param points Les points.
+     * @param cellSize Le côté des cubes.
+     */
+    public UniformGrid(PointCloud points, float cellSize) {
+        int n = points.size();
+        this.cellSize = cellSize;
+        int capacity = Integer.highestOneBit(Math.max(16, n - 1)) << 1;
+        this.mask = capacity - 1;
+        float[] x = points.getX();
+        float[] y = points.getY();
+        float[] z = points.getZ();
+
+        // Case de chaque point, en parallèle
+        int[] buckets = new int[n];
+        IntStream.range(0, n).parallel().forEach(i ->
+                buckets[i] = bucket(cell(x[i]), cell(y[i]), cell(z[i])));
+
+        minCell = new int[] {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+        maxCell = new int[] {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        float[][] source = {x, y, z};
+        for (int d = 0; d < 3; d++) {
+            for (int i = 0; i < n; i++) {
+                int c = cell(source[d][i]);
+                minCell[d] = Math.min(minCell[d], c);
+                maxCell[d] = Math.max(maxCell[d], c);
+            }
+        }
+
+        // Tri par case (tri par dénombrement)
+        offsets = new int[capacity + 1];
+        for (int i = 0; i < n; i++) {
+            offsets[buckets[i] + 1]++;
+        }
+        for (int b = 0; b < capacity; b++) {
+            offsets[b + 1] += offsets[b];
+        }
+        permutation = new int[n];
+        int[] fill = Arrays.copyOf(offsets, capacity);
+        for (int i = 0; i < n; i++) {
+            permutation[fill[buckets[i]]++] = i;
+        }
+        coordinates = new float[3][n];
+        for (int d = 0; d < 3; d++) {
+            float[] column = coordinates[d];
+            float[] values = source[d];
+            IntStream.range(0, n).parallel().forEach(i -> column[i] = values[permutation[i]]);
+        }
+    }
+
+    @Override
+    public int size() {
+        return permutation.length;
+    }
+
+    @Override
+    public int nearestNeighbours(float x, float y, float z, int k, int[] indices, float[] squaredDistances) {
+        k = Math.min(k, size());
+        if (k <= 0) {
+            return 0;
+        }
+        int cx = cell(x), cy = cell(y), cz = cell(z);
+        int size = 0;
+        // Parcours des coquilles de cubes autour du cube de la requête, limitées aux cubes occupés
+        for (int shell = 0; ; shell++) {
+            int iMax = Math.min(cx + shell, maxCell[0]);
+            int jMax = Math.min(cy + shell, maxCell[1]);
+            for (int i = Math.max(cx - shell, minCell[0]); i <= iMax; i++) {
+                for (int j = Math.max(cy - shell, minCell[1]); j <= jMax; j++) {
+                    if (Math.abs(i - cx) < shell && Math.abs(j - cy) < shell) {
+                        // À l'intérieur de la coquille en (x, y), seules ses deux faces z restent
+                        if (cz - shell >= minCell[2]) {
+                            size = visit(i, j, cz - shell, x, y, z, k, indices, squaredDistances, size);
+                        }
+                        if (cz + shell <= maxCell[2]) {
+                            size = visit(i, j, cz + shell, x, y, z, k, indices, squaredDistances, size);
+                        }
+                    } else {
+                        int lMax = Math.min(cz + shell, maxCell[2]);
+                        for (int l = Math.max(cz - shell, minCell[2]); l <= lMax; l++) {
+                            size = visit(i, j, l, x, y, z, k, indices, squaredDistances, size);
+                        }
+                    }
+                }
+            }
+            // Distance minimale d'un point hors des coquilles parcourues
+            float reach = Math.min(reach(x, cx, shell), Math.min(reach(y, cy, shell), reach(z, cz, shell)));
+            boolean covered = cx - shell <= minCell[0] && cx + shell >= maxCell[0]
+                    && cy - shell <= minCell[1] && cy + shell >= maxCell[1]
+                    && cz - shell <= minCell[2] && cz + shell >= maxCell[2];
+            if (covered || (size == k && reach * reach >= squaredDistances[0])) {
+                break;
+            }
+        }
+        NeighbourHeap.sort(indices, squaredDistances, size);
+        return size;
+    }
+
+    /**
+     * La distance d'une coordonnée au bord des cubes [c - shell, c + shell] sur un axe.
+     */
+    private float reach(float coordinate, int c, int shell) {
+        return Math.min(coordinate - (c - shell) * cellSize, (c + shell + 1) * cellSize - coordinate);
+    }
+
+    private int visit(int i, int j, int l, float x, float y, float z, int k, int[] indices, float[] distances, int size) {
+        int b = bucket(i, j, l);
+        for (int p = offsets[b]; p < offsets[b + 1]; p++) {
+            if (cell(coordinates[0][p]) != i || cell(coordinates[1][p]) != j || cell(coordinates[2][p]) != l) {
+                continue;
+            }
+            size = NeighbourHeap.offer(indices, distances, size, k, permutation[p], squaredDistance(p, x, y, z));
+        }
+        return size;
+    }
+
+    @Override
+    public int radiusSearch(float x, float y, float z, float radius, int[] indices) {
+        float squaredRadius = radius * radius;
+        int count = 0;
+        int iMax = Math.min(cell(x + radius), maxCell[0]);
+        int jMax = Math.min(cell(y + radius), maxCell[1]);
+        int lMax = Math.min(cell(z + radius), maxCell[2]);
+        for (int i = Math.max(cell(x - radius), minCell[0]); i <= iMax; i++) {
+            for (int j = Math.max(cell(y - radius), minCell[1]); j <= jMax; j++) {
+                for (int l = Math.max(cell(z - radius), minCell[2]); l <= lMax; l++) {
+                    int b = bucket(i, j, l);
+                    for (int p = offsets[b]; p < offsets[b + 1]; p++) {
+                        if (squaredDistance(p, x, y, z) > squaredRadius
+                                || cell(coordinates[0][p]) != i || cell(coordinates[1][p]) != j || cell(coordinates[2][p]) != l) {
+                            continue;
+                        }
+                        if (count < indices.length) {
+                            indices[count] = permutation[p];
+                        }
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private int cell(float coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private int bucket(int i, int j, int l) {
+        int h = i * 73856093 ^ j * 19349663 ^ l * 83492791;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private float squaredDistance(int p, float x, float y, float z) {
+        float dx = coordinates[0][p] - x;
+        float dy = coordinates[1][p] - y;
+        float dz = coordinates[2][p] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
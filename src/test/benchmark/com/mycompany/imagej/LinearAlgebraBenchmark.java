@@ -0,0 +1,95 @@
+package com.mycompany.imagej;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare les factorisations des deux implémentations de {@link LinearAlgebraBackend} sur la
+ * matrice de conception des harmoniques sphériques d'une gouttelette
+ * ({@link LinearAlgebraBackendTest#designMatrix}), suivies de la résolution des trois séries
+ * x, y et z, comme dans l'ajustement.
+ *
+ * Le degré 5 est celui par défaut du traitement par lot ; 2000 points correspondent à une
+ * sphère de rayon 30 rééchantillonnée avec la longueur par défaut (2,5).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LinearAlgebraBenchmark {
+
+    /** Les implémentations comparées. */
+    public enum Backend {
+        COMMONS_MATH(LinearAlgebraBackend.COMMONS_MATH),
+        PARALLEL(LinearAlgebraBackend.PARALLEL);
+
+        private final LinearAlgebraBackend backend;
+
+        Backend(LinearAlgebraBackend backend) {
+            this.backend = backend;
+        }
+    }
+
+    private static final int SERIES = 3;
+
+    @Param({"5", "10", "20"})
+    public int degree;
+
+    @Param({"2000", "20000"})
+    public int points;
+
+    @Param({"COMMONS_MATH", "PARALLEL"})
+    public Backend backend;
+
+    private int columns;
+    private double[] design;
+    private double[] b;
+    private double[] gram;
+    private double[] rhs;
+    private double[] work;
+
+    @Setup
+    public void setup() {
+        columns = (degree + 1) * (degree + 1);
+        design = LinearAlgebraBackendTest.designMatrix(degree, points);
+        b = LinearAlgebraBackendTest.rightHandSides(points, SERIES);
+        gram = LinearAlgebraBackendTest.normalMatrix(design, points, columns);
+        rhs = new double[columns * SERIES];
+        for (int i = 0; i < columns; i++) {
+            for (int s = 0; s < SERIES; s++) {
+                double sum = 0;
+                for (int p = 0; p < points; p++) {
+                    sum += design[i * points + p] * b[s * points + p];
+                }
+                rhs[s * columns + i] = sum;
+            }
+        }
+        work = new double[design.length];
+    }
+
+    /** Les factorisations écrivent dans la matrice : chaque appel part d'une copie. */
+    @Benchmark
+    public double[] qr() {
+        System.arraycopy(design, 0, work, 0, design.length);
+        return backend.backend.qr(work, points, columns).solve(b, SERIES);
+    }
+
+    @Benchmark
+    public double[] cholesky() {
+        System.arraycopy(gram, 0, work, 0, gram.length);
+        return backend.backend.cholesky(work, columns).solve(rhs, SERIES);
+    }
+}
@@ -0,0 +1,99 @@
+package com.mycompany.imagej;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mesure la construction de l'arbre k-d et de la grille uniforme, et leurs requêtes, sur des
+ * points bruités répartis sur une sphère (comme les points rééchantillonnés d'une gouttelette).
+ *
+ * Chaque appel des requêtes en enchaîne {@link #QUERIES}, autour de points du nuage. Le rayon
+ * de recherche, qui est aussi le côté des cubes de la grille, vaut deux fois l'espacement moyen
+ * des points : une douzaine de points par requête.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SpatialIndexBenchmark {
+
+    /** Les index comparés. */
+    public enum Index {
+        KD_TREE, UNIFORM_GRID
+    }
+
+    private static final int NEIGHBOURS = 8;
+    private static final int QUERIES = 10000;
+
+    @Param({"10000", "200000", "2000000"})
+    public int points;
+
+    @Param({"KD_TREE", "UNIFORM_GRID"})
+    public Index index;
+
+    private PointCloud cloud;
+    private float radius;
+    private float[] queries;
+    private SpatialIndex built;
+    private final int[] indices = new int[1024];
+    private final float[] distances = new float[NEIGHBOURS];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        cloud = new PointCloud(points);
+        for (int i = 0; i < points; i++) {
+            double theta = Math.acos(2 * random.nextDouble() - 1);
+            double phi = 2 * Math.PI * random.nextDouble();
+            double r = 1 + 0.01 * random.nextGaussian();
+            cloud.add((float) (r * Math.sin(theta) * Math.cos(phi)), (float) (r * Math.sin(theta) * Math.sin(phi)),
+                    (float) (r * Math.cos(theta)));
+        }
+        radius = (float) (2 * Math.sqrt(4 * Math.PI / points));
+        queries = new float[3 * QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            int p = random.nextInt(points);
+            queries[3 * q] = cloud.getX(p) + (float) random.nextGaussian() * radius;
+            queries[3 * q + 1] = cloud.getY(p) + (float) random.nextGaussian() * radius;
+            queries[3 * q + 2] = cloud.getZ(p) + (float) random.nextGaussian() * radius;
+        }
+        built = build();
+    }
+
+    @Benchmark
+    public SpatialIndex build() {
+        return index == Index.KD_TREE ? new KdTree(cloud) : new UniformGrid(cloud, radius);
+    }
+
+    @Benchmark
+    public int nearestNeighbours() {
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            found += built.nearestNeighbours(queries[3 * q], queries[3 * q + 1], queries[3 * q + 2], NEIGHBOURS, indices, distances);
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int radiusSearch() {
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            found += built.radiusSearch(queries[3 * q], queries[3 * q + 1], queries[3 * q + 2], radius, indices);
+        }
+        return found;
+    }
+}
@@ -0,0 +1,66 @@
+package com.mycompany.imagej;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare le calcul d'une table des nœuds de Lebedev, que le cache évite à chaque gouttelette
+ * d'un lot, à l'ajustement complet d'une gouttelette par quadrature de Lebedev (table en cache).
+ *
+ * La gouttelette est un ellipsoïde bruité ; la grille est la plus petite exacte au degré.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SphericalHarmonicsTableBenchmark {
+
+    @Param({"5", "8"})
+    public int degree;
+
+    @Param({"2000", "20000"})
+    public int points;
+
+    private PointCloud droplet;
+    private LebedevGrid grid;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        droplet = new PointCloud(points);
+        for (int i = 0; i < points; i++) {
+            double theta = Math.acos(2 * random.nextDouble() - 1);
+            double phi = 2 * Math.PI * random.nextDouble();
+            double r = 1 + 0.02 * random.nextGaussian();
+            droplet.add((float) (30 * r * Math.sin(theta) * Math.cos(phi)), (float) (25 * r * Math.sin(theta) * Math.sin(phi)),
+                    (float) (20 * r * Math.cos(theta)));
+        }
+        grid = SphericalHarmonicsExpansion.lebedevGrid(degree, 0);
+    }
+
+    @Benchmark
+    public SphericalHarmonicsTable tableBuild() {
+        return SphericalHarmonicsTable.compute(degree, grid);
+    }
+
+    @Benchmark
+    public PointCloud lebedevFit() {
+        SphericalHarmonicsExpansion expansion = new SphericalHarmonicsExpansion(droplet, degree);
+        expansion.setFitMethod(SphericalHarmonicsExpansion.FitMethod.LEBEDEV_QUADRATURE);
+        return expansion.expand();
+    }
+}
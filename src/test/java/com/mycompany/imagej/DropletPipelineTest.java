@@ -0,0 +1,76 @@
+package com.mycompany.imagej;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import net.imglib2.IterableInterval;
+import net.imglib2.type.logic.BitType;
+
+/**
+ * Vérifie que le cache des étapes sépare les résultats des deux modes d'extraction de la surface,
+ * qui occupent la même étape (le seuil d'Otsu) : un masque, ou le seul niveau du seuil.
+ *
+ * La chaîne est exécutée avec le cache de cellules, qui ne demande pas de service d'opérations.
+ */
+public class DropletPipelineTest {
+
+    private static final int SIZE = 24;
+
+    @Test
+    public void cachedPipelineSwitchesSurfaceExtraction() {
+        ImagePlus imp = sphere();
+        DropletPipeline pipeline = new DropletPipeline(null, new StageCache(256L << 20));
+        PipelineContext context = new PipelineContext(1, 1, 4);
+        context.setCellCacheMemory(64L << 20);
+
+        context.setSurfaceExtraction(DropletPipeline.SurfaceExtraction.GRAYSCALE_ISOSURFACE);
+        assertNull(pipeline.binarize(imp, context));
+        double isovalue = context.getIsovalue();
+        assertTrue(isovalue > 0 && isovalue < 100);
+
+        context.setSurfaceExtraction(DropletPipeline.SurfaceExtraction.BINARY_MASK);
+        IterableInterval<BitType> mask = pipeline.binarize(imp, context);
+        assertNotNull(mask);
+        long inside = 0;
+        for (BitType voxel : mask) {
+            if (voxel.get()) {
+                inside++;
+            }
+        }
+        assertTrue(inside > 0 && inside < mask.size());
+
+        // Retour au premier mode : le niveau est relu depuis le cache
+        context.setSurfaceExtraction(DropletPipeline.SurfaceExtraction.GRAYSCALE_ISOSURFACE);
+        assertNull(pipeline.binarize(imp, context));
+        assertEquals(isovalue, context.getIsovalue(), 0);
+    }
+
+    /**
+     * Une sphère claire (100) sur un fond sombre (0), au centre d'une pile cubique.
+     */
+    private static ImagePlus sphere() {
+        ImageStack stack = new ImageStack(SIZE, SIZE);
+        double center = (SIZE - 1) / 2.0;
+        double radius = SIZE / 3.0;
+        for (int z = 0; z < SIZE; z++) {
+            FloatProcessor plane = new FloatProcessor(SIZE, SIZE);
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    double dx = x - center;
+                    double dy = y - center;
+                    double dz = z - center;
+                    plane.setf(x, y, dx * dx + dy * dy + dz * dz <= radius * radius ? 100 : 0);
+                }
+            }
+            stack.addSlice(plane);
+        }
+        return new ImagePlus("sphère", stack);
+    }
+}
@@ -0,0 +1,142 @@
+package com.mycompany.imagej;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.util.Random;
+
+import org.apache.commons.math3.linear.NonPositiveDefiniteMatrixException;
+import org.junit.Test;
+
+/**
+ * Compare les factorisations de {@link ParallelLinearAlgebra} à celles de commons-math, sur la
+ * matrice de conception des harmoniques sphériques d'une gouttelette.
+ */
+public class LinearAlgebraBackendTest {
+
+    private static final int DEGREE = 6;
+    private static final int POINTS = 3000;
+    private static final int SERIES = 3;
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    public void qrMatchesCommonsMath() {
+        int columns = (DEGREE + 1) * (DEGREE + 1);
+        double[] design = designMatrix(DEGREE, POINTS);
+        double[] b = rightHandSides(POINTS, SERIES);
+        double[] expected = LinearAlgebraBackend.COMMONS_MATH.qr(design.clone(), POINTS, columns).solve(b, SERIES);
+        double[] actual = LinearAlgebraBackend.PARALLEL.qr(design.clone(), POINTS, columns).solve(b, SERIES);
+        assertClose(expected, actual);
+    }
+
+    @Test
+    public void choleskyMatchesCommonsMath() {
+        int columns = (DEGREE + 1) * (DEGREE + 1);
+        double[] design = designMatrix(DEGREE, POINTS);
+        double[] b = rightHandSides(POINTS, SERIES);
+        double[] gram = normalMatrix(design, POINTS, columns);
+        double[] rhs = new double[columns * SERIES];
+        for (int i = 0; i < columns; i++) {
+            for (int s = 0; s < SERIES; s++) {
+                double sum = 0;
+                for (int p = 0; p < POINTS; p++) {
+                    sum += design[i * POINTS + p] * b[s * POINTS + p];
+                }
+                rhs[s * columns + i] = sum;
+            }
+        }
+        double[] expected = LinearAlgebraBackend.COMMONS_MATH.cholesky(gram.clone(), columns).solve(rhs, SERIES);
+        double[] actual = LinearAlgebraBackend.PARALLEL.cholesky(gram.clone(), columns).solve(rhs, SERIES);
+        assertClose(expected, actual);
+    }
+
+    @Test
+    public void qrRecoversExactCoefficients() {
+        int columns = (DEGREE + 1) * (DEGREE + 1);
+        double[] design = designMatrix(DEGREE, POINTS);
+        Random random = new Random(5);
+        double[] coefficients = new double[columns];
+        for (int j = 0; j < columns; j++) {
+            coefficients[j] = random.nextGaussian();
+        }
+        double[] b = new double[POINTS];
+        for (int j = 0; j < columns; j++) {
+            for (int p = 0; p < POINTS; p++) {
+                b[p] += design[j * POINTS + p] * coefficients[j];
+            }
+        }
+        assertClose(coefficients, LinearAlgebraBackend.PARALLEL.qr(design, POINTS, columns).solve(b, 1));
+    }
+
+    @Test
+    public void choleskyRejectsIndefiniteMatrix() {
+        double[] a = {1, 2, 2, 1};
+        assertThrows(NonPositiveDefiniteMatrixException.class, () -> LinearAlgebraBackend.PARALLEL.cholesky(a, 2));
+    }
+
+    /**
+     * Les harmoniques sphériques, rangées par colonnes, aux directions de points répartis sur un
+     * ellipsoïde et concentrés vers un pôle (comme une gouttelette posée).
+     */
+    static double[] designMatrix(int degree, int points) {
+        SphericalHarmonicsBasis basis = new SphericalHarmonicsBasis(degree);
+        int columns = basis.size();
+        double[] design = new double[points * columns];
+        double[] row = new double[columns];
+        Random random = new Random(3);
+        for (int p = 0; p < points; p++) {
+            double theta = Math.acos(2 * Math.pow(random.nextDouble(), 1.5) - 1);
+            double phi = 2 * Math.PI * random.nextDouble();
+            basis.evaluate(theta, phi, row);
+            for (int j = 0; j < columns; j++) {
+                design[j * points + p] = row[j];
+            }
+        }
+        return design;
+    }
+
+    /**
+     * Les rayons d'un ellipsoïde bruité aux mêmes points, une série par colonne (x, y et z pour
+     * trois séries).
+     */
+    static double[] rightHandSides(int points, int series) {
+        double[] b = new double[points * series];
+        Random random = new Random(4);
+        for (int s = 0; s < series; s++) {
+            for (int p = 0; p < points; p++) {
+                b[s * points + p] = (10 + 2 * s) * (1 + 0.05 * random.nextGaussian());
+            }
+        }
+        return b;
+    }
+
+    /**
+     * La matrice des équations normales, avec la régularisation l(l + 1) de l'ajustement.
+     */
+    static double[] normalMatrix(double[] design, int points, int columns) {
+        double[] gram = new double[columns * columns];
+        for (int i = 0; i < columns; i++) {
+            for (int j = 0; j < columns; j++) {
+                double sum = 0;
+                for (int p = 0; p < points; p++) {
+                    sum += design[i * points + p] * design[j * points + p];
+                }
+                gram[j * columns + i] = sum;
+            }
+            int l = (int) Math.sqrt(i);
+            gram[i * columns + i] += 0.01 * l * (l + 1);
+        }
+        return gram;
+    }
+
+    private static void assertClose(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        double scale = 0;
+        for (double value : expected) {
+            scale = Math.max(scale, Math.abs(value));
+        }
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("élément " + i, expected[i], actual[i], TOLERANCE * Math.max(1, scale));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.mycompany.imagej;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Vérifie que le redimensionnement calculé en parallèle donne exactement les voxels de la vue
+ * paresseuse, pour chaque interpolation.
+ */
+public class ProcessImageTest {
+
+    @Test
+    public void materializedRescaleMatchesLazyView() {
+        Img<FloatType> image = ArrayImgs.floats(17, 13, 5);
+        Random random = new Random(1);
+        for (FloatType voxel : image) {
+            voxel.set(random.nextFloat() * 1000);
+        }
+        // Facteurs (z, x, y) : sur-échantillonnage en z seul, puis facteurs quelconques
+        double[][] factors = {{3, 1, 1}, {2.5, 1.5, 0.75}};
+        for (ProcessImage.Interpolation interpolation : ProcessImage.Interpolation.values()) {
+            for (double[] scalingFactors : factors) {
+                RandomAccessibleInterval<FloatType> lazy = ProcessImage.rescaleImage(image, scalingFactors, interpolation, false);
+                RandomAccessibleInterval<FloatType> materialized = ProcessImage.rescaleImage(image, scalingFactors, interpolation, true);
+                assertArrayEquals(Intervals.dimensionsAsLongArray(lazy), Intervals.dimensionsAsLongArray(materialized));
+                Cursor<FloatType> expected = Views.flatIterable(lazy).cursor();
+                Cursor<FloatType> actual = Views.flatIterable(materialized).cursor();
+                while (expected.hasNext()) {
+                    assertEquals(interpolation.toString(), expected.next().get(), actual.next().get(), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rescaledDimensions() {
+        Img<FloatType> image = ArrayImgs.floats(17, 13, 5);
+        RandomAccessibleInterval<FloatType> rescaled = ProcessImage.rescaleImage(image, new double[] {3, 1, 1},
+                ProcessImage.Interpolation.NEAREST, true);
+        assertArrayEquals(new long[] {17, 13, 15}, Intervals.dimensionsAsLongArray(rescaled));
+    }
+}
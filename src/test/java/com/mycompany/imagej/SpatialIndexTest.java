@@ -0,0 +1,129 @@
+package com.mycompany.imagej;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compare les recherches de l'arbre k-d et de la grille uniforme à une recherche exhaustive.
+ *
+ * Les index calculent les distances comme ici, en simple précision : les résultats doivent être
+ * identiques, aux égalités de distance près (seules les distances des k voisins sont comparées).
+ */
+public class SpatialIndexTest {
+
+    private static final int NEIGHBOURS = 8;
+    private static final int QUERIES = 500;
+
+    @Test
+    public void kdTreeMatchesBruteForce() {
+        for (PointCloud points : clouds()) {
+            check(new KdTree(points), points);
+        }
+    }
+
+    @Test
+    public void uniformGridMatchesBruteForce() {
+        for (PointCloud points : clouds()) {
+            check(new UniformGrid(points, 0.1f), points);
+            // Des cubes bien plus petits ou plus grands que l'espacement des points
+            check(new UniformGrid(points, 0.03f), points);
+            check(new UniformGrid(points, 1f), points);
+        }
+    }
+
+    @Test
+    public void fewerPointsThanNeighbours() {
+        PointCloud points = new PointCloud(3);
+        points.add(0, 0, 0);
+        points.add(1, 0, 0);
+        points.add(0, 2, 0);
+        for (SpatialIndex index : new SpatialIndex[] {new KdTree(points), new UniformGrid(points, 0.5f)}) {
+            int[] indices = new int[NEIGHBOURS];
+            float[] distances = new float[NEIGHBOURS];
+            assertEquals(3, index.nearestNeighbours(0, 0, 0, NEIGHBOURS, indices, distances));
+            assertArrayEquals(new int[] {0, 1, 2}, Arrays.copyOf(indices, 3));
+            assertArrayEquals(new float[] {0, 1, 4}, Arrays.copyOf(distances, 3), 0);
+        }
+    }
+
+    /**
+     * Des points sur une sphère (comme une gouttelette rééchantillonnée), un amas dense et des
+     * doublons.
+     */
+    private static PointCloud[] clouds() {
+        Random random = new Random(42);
+        PointCloud sphere = new PointCloud(5000);
+        for (int i = 0; i < 5000; i++) {
+            double theta = Math.acos(2 * random.nextDouble() - 1);
+            double phi = 2 * Math.PI * random.nextDouble();
+            sphere.add((float) (Math.sin(theta) * Math.cos(phi)), (float) (Math.sin(theta) * Math.sin(phi)), (float) Math.cos(theta));
+        }
+        PointCloud clustered = new PointCloud(3000);
+        for (int i = 0; i < 3000; i++) {
+            double spread = i < 2000 ? 0.01 : 1;
+            clustered.add((float) (random.nextGaussian() * spread), (float) (random.nextGaussian() * spread),
+                    (float) (random.nextGaussian() * spread));
+        }
+        PointCloud duplicates = new PointCloud(400);
+        for (int i = 0; i < 400; i++) {
+            duplicates.add(i % 7 * 0.05f, i % 5 * 0.05f, 0);
+        }
+        return new PointCloud[] {sphere, clustered, duplicates};
+    }
+
+    private static void check(SpatialIndex index, PointCloud points) {
+        int n = points.size();
+        assertEquals(n, index.size());
+        Random random = new Random(7);
+        int[] indices = new int[n];
+        float[] distances = new float[n];
+        float[] expected = new float[n];
+        for (int q = 0; q < QUERIES; q++) {
+            // Requêtes sur les points eux-mêmes et entre eux
+            int p = random.nextInt(n);
+            float x = points.getX(p) + (q % 2 == 0 ? 0 : (float) random.nextGaussian() * 0.05f);
+            float y = points.getY(p) + (q % 2 == 0 ? 0 : (float) random.nextGaussian() * 0.05f);
+            float z = points.getZ(p) + (q % 2 == 0 ? 0 : (float) random.nextGaussian() * 0.05f);
+            for (int i = 0; i < n; i++) {
+                expected[i] = squaredDistance(points, i, x, y, z);
+            }
+
+            int found = index.nearestNeighbours(x, y, z, NEIGHBOURS, indices, distances);
+            assertEquals(NEIGHBOURS, found);
+            float[] sorted = expected.clone();
+            Arrays.sort(sorted);
+            assertArrayEquals(Arrays.copyOf(sorted, NEIGHBOURS), Arrays.copyOf(distances, NEIGHBOURS), 0);
+            for (int k = 0; k < NEIGHBOURS; k++) {
+                assertEquals(expected[indices[k]], distances[k], 0);
+            }
+
+            float radius = 0.02f + random.nextFloat() * 0.1f;
+            int count = index.radiusSearch(x, y, z, radius, indices);
+            int[] within = new int[n];
+            int expectedCount = 0;
+            for (int i = 0; i < n; i++) {
+                if (expected[i] <= radius * radius) {
+                    within[expectedCount++] = i;
+                }
+            }
+            assertEquals(expectedCount, count);
+            int[] result = Arrays.copyOf(indices, count);
+            Arrays.sort(result);
+            assertArrayEquals(Arrays.copyOf(within, expectedCount), result);
+            // Un tableau de résultats trop petit : le nombre total est renvoyé
+            assertEquals(expectedCount, index.radiusSearch(x, y, z, radius, new int[1]));
+        }
+    }
+
+    private static float squaredDistance(PointCloud points, int i, float x, float y, float z) {
+        float dx = points.getX(i) - x;
+        float dy = points.getY(i) - y;
+        float dz = points.getZ(i) - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+}